@@ -0,0 +1,137 @@
+package com.esp1920.lookandpick;
+
+import android.opengl.Matrix;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Instrumented benchmark, which measures on the device the time taken to find the object the user is
+ * looking at with a {@link GazeIndex}, compared to testing every object, on scenes of 10, 100 and 1,000
+ * objects placed like the targets.
+ * <p>
+ * Each scene is queried with the same random head poses by both methods, which must agree on the
+ * picked object. The timings are written to logcat.
+ * </p>
+ */
+@RunWith(AndroidJUnit4.class)
+public class GazeIndexBenchmark {
+    private static final String TAG = "GazeIndexBenchmark";
+    private final static String RESULT = "%5d objects: index %7.0f ns, linear scan %7.0f ns per query, %d%% gazed";
+
+    private static final int[] OBJECT_COUNTS = {10, 100, 1000};
+    private static final int POSES = 256;
+    private static final int WARM_UP_QUERIES = 5000;
+    private static final int QUERIES = 50000;
+    // Range of the head poses: the yaw and pitch in degrees, and the movement of the player along z.
+    private static final float MAX_YAW = 180.0f;
+    private static final float MAX_PITCH = 30.0f;
+    private static final float MAX_EYE_Z = 2.0f;
+
+    private static final GazeIndex.Filter ALL = new GazeIndex.Filter() {
+        @Override
+        public boolean accept(int object) {
+            return true;
+        }
+    };
+
+    private final Random mRandom = new Random(1);
+    // Sum of the results of the queries, so that they cannot be optimized away.
+    private long mSink;
+
+    @Test
+    public void indexMatchesLinearScan() {
+        float[][] headViews = new float[POSES][16];
+        for (float[] headView : headViews) {
+            Matrix.setRotateM(headView, 0, (mRandom.nextFloat() - 0.5f) * 2 * MAX_PITCH, 1, 0, 0);
+            Matrix.rotateM(headView, 0, (mRandom.nextFloat() - 0.5f) * 2 * MAX_YAW, 0, 1, 0);
+            Matrix.translateM(headView, 0, 0, 0, -(mRandom.nextFloat() - 0.5f) * 2 * MAX_EYE_Z);
+        }
+        for (int count : OBJECT_COUNTS) {
+            measure(count, headViews);
+        }
+    }
+
+    /**
+     * Checks that both methods pick the same objects on a scene, then measures them.
+     *
+     * @param count     The number of objects.
+     * @param headViews The head poses to query.
+     */
+    private void measure(int count, float[][] headViews) {
+        GazeIndex index = new GazeIndex(count, MainActivity.GAZE_INDEX_HALF_EXTENT, MainActivity.GAZE_INDEX_CELL_SIZE,
+                MainActivity.ANGLE_LIMIT);
+        float[] centers = new float[count * 3];
+        Position position = new Position();
+        for (int i = 0; i < count; i++) {
+            position.generateRandomPosition();
+            centers[i * 3] = position.getXCoordinate();
+            centers[i * 3 + 1] = position.getYCoordinate();
+            centers[i * 3 + 2] = position.getZCoordinate();
+            index.update(i, centers[i * 3], centers[i * 3 + 1], centers[i * 3 + 2]);
+        }
+
+        int gazed = 0;
+        for (int i = 0; i < POSES; i++) {
+            int picked = index.find(headViews[i], ALL);
+            if (picked != GazeIndex.NONE)
+                gazed++;
+            assertEquals(scan(centers, headViews[i]), picked);
+        }
+
+        for (int i = 0; i < WARM_UP_QUERIES; i++) {
+            mSink += index.find(headViews[i % POSES], ALL) + scan(centers, headViews[i % POSES]);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            mSink += index.find(headViews[i % POSES], ALL);
+        }
+        long indexTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < QUERIES; i++) {
+            mSink += scan(centers, headViews[i % POSES]);
+        }
+        long scanTime = System.nanoTime() - start;
+
+        Log.i(TAG, String.format(Locale.US, RESULT, count, (double) indexTime / QUERIES,
+                (double) scanTime / QUERIES, gazed * 100 / POSES));
+    }
+
+    /**
+     * Finds the gazed-at object by testing every object, with the gaze ray computed as the index does.
+     *
+     * @param centers  The centers of the objects.
+     * @param headView The transform from the scene to the head space.
+     * @return The index of the object nearest to the gaze within the angle limit, or {@link GazeIndex#NONE}.
+     */
+    private static int scan(float[] centers, float[] headView) {
+        float rayX = -(headView[0] * headView[12] + headView[1] * headView[13] + headView[2] * headView[14]);
+        float rayY = -(headView[4] * headView[12] + headView[5] * headView[13] + headView[6] * headView[14]);
+        float rayZ = -(headView[8] * headView[12] + headView[9] * headView[13] + headView[10] * headView[14]);
+        float directionX = -headView[2];
+        float directionY = -headView[6];
+        float directionZ = -headView[10];
+
+        float bestCosOfAngle = (float) Math.cos(MainActivity.ANGLE_LIMIT);
+        int best = GazeIndex.NONE;
+        for (int i = 0; i < centers.length / 3; i++) {
+            float x = centers[i * 3] - rayX;
+            float y = centers[i * 3 + 1] - rayY;
+            float z = centers[i * 3 + 2] - rayZ;
+            float cosOfAngle = (x * directionX + y * directionY + z * directionZ) / (float) Math.sqrt(x * x + y * y + z * z);
+            if (cosOfAngle > bestCosOfAngle) {
+                bestCosOfAngle = cosOfAngle;
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,190 @@
+package com.esp1920.lookandpick;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * This class stores assets converted at runtime in the app's cache directory, so that the following
+ * launches can map them in memory instead of parsing or decoding them again.
+ * <p>
+ * Each entry is the conversion of an asset into a variant, such as a texture decoded for a quality
+ * tier. It is valid only for the same app version and the same asset content, which is identified by
+ * the CRC-32 and size stored for the asset in the APK: checking an entry does not read the asset.
+ * Invalid entries are deleted and written again, as well as entries whose payload its reader can not
+ * parse, see {@link #delete(String, String)}.
+ * Entries are written to a temporary file which is then renamed, so that a reader never sees a
+ * partial entry. The methods can be called on any thread.
+ * </p>
+ */
+/* package */ class AssetCache {
+    private static final String TAG = "AssetCache";
+    private final static String DIRECTORY = "assets";
+    private final static String APK_ASSETS = "assets/";
+    private final static String ENTRY_EXTENSION = ".cache";
+    private final static String TEMP_EXTENSION = ".tmp";
+    private final static String PATH_SEPARATOR = "/";
+    private final static String SEPARATOR = "_";
+    private final static String DOT = ".";
+    private final static String APK_UNREADABLE = "Unable to read the asset list of ";
+    private final static String READ_FAILED = "Unable to read cached ";
+    private final static String WRITE_FAILED = "Unable to cache ";
+    private final static String STALE_ENTRY = "Discarding stale cache entry ";
+    private final static String DELETE_FAILED = "Unable to delete cache entry ";
+
+    // Layout of an entry: a header identifying the asset, followed by the payload.
+    private static final int MAGIC = 0x4350414C; // "LAPC" read as a little-endian int.
+    private static final int VERSION = 1;
+    // magic, version, app version, payload size (int), asset CRC-32 and asset size (long).
+    private static final int HEADER_SIZE = 4 * 4 + 2 * 8;
+
+    private static AssetCache instance;
+
+    private final File mDirectory;
+    // CRC-32 and size of each asset in the APK, keyed by asset path.
+    private final Map<String, long[]> mAssetHashes = new HashMap<>();
+
+    /**
+     * Constructor. It is private due to Singleton.
+     *
+     * @param context The current application context.
+     */
+    private AssetCache(Context context) {
+        mDirectory = new File(context.getCacheDir(), DIRECTORY);
+        String apkPath = context.getApplicationInfo().sourceDir;
+        try (ZipFile apk = new ZipFile(apkPath)) {
+            Enumeration<? extends ZipEntry> entries = apk.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.getName().startsWith(APK_ASSETS) && entry.getCrc() != -1)
+                    mAssetHashes.put(entry.getName().substring(APK_ASSETS.length()),
+                            new long[]{entry.getCrc(), entry.getSize()});
+            }
+        } catch (IOException e) {
+            // Without the hashes, nothing is cached.
+            Log.w(TAG, APK_UNREADABLE + apkPath, e);
+        }
+    }
+
+    /**
+     * Gets the cache. The asset list of the APK is read the first time.
+     *
+     * @param context The current application context.
+     * @return The unique instance of the cache.
+     */
+    synchronized public static AssetCache getInstance(Context context) {
+        if (instance == null)
+            instance = new AssetCache(context.getApplicationContext());
+        return instance;
+    }
+
+    /**
+     * Maps a cache entry in memory.
+     *
+     * @param assetPath The path of the asset the entry has been converted from.
+     * @param variant   The name of the conversion.
+     * @return The payload of the entry in little-endian order, or null if there is no valid entry.
+     */
+    public ByteBuffer read(String assetPath, String variant) {
+        long[] hash = mAssetHashes.get(assetPath);
+        File file = getFile(assetPath, variant);
+        if (hash == null || !file.isFile())
+            return null;
+
+        MappedByteBuffer entry;
+        try (RandomAccessFile input = new RandomAccessFile(file, "r")) {
+            entry = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        } catch (IOException e) {
+            Log.w(TAG, READ_FAILED + file, e);
+            return null;
+        }
+        entry.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (entry.capacity() < HEADER_SIZE || entry.getInt() != MAGIC || entry.getInt() != VERSION
+                || entry.getInt() != BuildConfig.VERSION_CODE
+                || entry.getInt() != entry.capacity() - HEADER_SIZE
+                || entry.getLong() != hash[0] || entry.getLong() != hash[1]) {
+            Log.i(TAG, STALE_ENTRY + file);
+            if (!file.delete())
+                Log.w(TAG, READ_FAILED + file);
+            return null;
+        }
+        return entry.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Stores a cache entry, replacing the previous one. Failures are logged and otherwise ignored,
+     * since the entry can be converted again.
+     *
+     * @param assetPath The path of the asset the entry has been converted from.
+     * @param variant   The name of the conversion.
+     * @param payload   The content of the entry, from its position to its limit.
+     */
+    public void write(String assetPath, String variant, ByteBuffer payload) {
+        long[] hash = mAssetHashes.get(assetPath);
+        if (hash == null)
+            return;
+
+        File file = getFile(assetPath, variant);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(BuildConfig.VERSION_CODE);
+        header.putInt(payload.remaining());
+        header.putLong(hash[0]);
+        header.putLong(hash[1]);
+        header.flip();
+
+        try {
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs())
+                throw new IOException(mDirectory.toString());
+            File temp = File.createTempFile(file.getName(), TEMP_EXTENSION, mDirectory);
+            try (RandomAccessFile output = new RandomAccessFile(temp, "rw")) {
+                FileChannel channel = output.getChannel();
+                while (header.hasRemaining())
+                    channel.write(header);
+                ByteBuffer content = payload.duplicate();
+                while (content.hasRemaining())
+                    channel.write(content);
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                throw new IOException(file.toString());
+            }
+        } catch (IOException e) {
+            Log.w(TAG, WRITE_FAILED + assetPath, e);
+        }
+    }
+
+    /**
+     * Deletes a cache entry, for example because its payload is truncated or corrupt. Buffers returned by
+     * {@link #read(String, String)} remain readable.
+     *
+     * @param assetPath The path of the asset the entry has been converted from.
+     * @param variant   The name of the conversion.
+     */
+    public void delete(String assetPath, String variant) {
+        File file = getFile(assetPath, variant);
+        if (file.isFile() && !file.delete())
+            Log.w(TAG, DELETE_FAILED + file);
+    }
+
+    /**
+     * @return The file of a cache entry.
+     */
+    private File getFile(String assetPath, String variant) {
+        return new File(mDirectory, assetPath.replace(PATH_SEPARATOR, SEPARATOR) + DOT + variant + ENTRY_EXTENSION);
+    }
+}
@@ -0,0 +1,110 @@
+package com.esp1920.lookandpick;
+
+import android.content.Context;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class performs the CPU stage of asset loading: parsing meshes and reading textures.
+ * Work is spread over a bounded pool of worker threads, one per available core, so that the GL
+ * thread only has to upload the results.
+ */
+/* package */ class AssetLoader {
+    private static final String TAG = "AssetLoader";
+
+    // Idle workers are stopped after this time, in seconds, so the pool costs nothing between loads.
+    private static final long KEEP_ALIVE_TIME = 5;
+
+    private final Context mContext;
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Constructor.
+     *
+     * @param context The context for loading the asset files.
+     */
+    AssetLoader(Context context) {
+        mContext = context.getApplicationContext();
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        mExecutor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG + "-" + mCount.incrementAndGet());
+                // Loading must not slow down the rendering and UI threads.
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Starts loading a mesh in background.
+     *
+     * @param objFilePath The path to the .obj file.
+     * @return The pending result.
+     */
+    public Future<MeshData> loadMesh(final String objFilePath) {
+        return mExecutor.submit(new Callable<MeshData>() {
+            @Override
+            public MeshData call() throws IOException {
+                long startTime = StartupProfiler.now();
+                MeshData data = MeshData.load(mContext, objFilePath);
+                StartupProfiler.getInstance().recordAsset(StartupProfiler.PARSE_STAGE, objFilePath, startTime,
+                        data.getByteSize());
+                return data;
+            }
+        });
+    }
+
+    /**
+     * Starts loading a texture in background, compressed if possible or decoded otherwise.
+     *
+     * @param texturePath The path to the image.
+     * @return The pending result.
+     */
+    public Future<TextureData> loadTexture(final String texturePath) {
+        return mExecutor.submit(new Callable<TextureData>() {
+            @Override
+            public TextureData call() throws IOException {
+                long startTime = StartupProfiler.now();
+                TextureData data = TextureData.load(mContext, texturePath);
+                StartupProfiler.getInstance().recordAsset(StartupProfiler.DECODE_STAGE, texturePath, startTime,
+                        data.getByteSize());
+                return data;
+            }
+        });
+    }
+
+    /**
+     * Waits for a background load to complete.
+     *
+     * @param pending The pending result.
+     * @return The loaded asset.
+     * @throws IOException if loading failed or it has been interrupted.
+     */
+    public static <T> T await(Future<T> pending) throws IOException {
+        try {
+            return pending.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+}
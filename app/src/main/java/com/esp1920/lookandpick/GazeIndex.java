@@ -0,0 +1,286 @@
+package com.esp1920.lookandpick;
+
+import java.util.Arrays;
+
+/**
+ * This class finds the object the user is looking at without testing all the objects on the scene.
+ * <p>
+ * The centers of the objects are kept in a uniform grid of cubic cells around the center of the scene,
+ * where each cell lists the objects whose center is inside it. A query walks along the gaze ray and only
+ * tests the objects of the cells which the cone of the angle limit around the ray may cross, so the cells
+ * it visits do not depend on the number of objects. Objects outside the grid are kept in a separate list,
+ * which every query tests. Walking the grid has a fixed cost, so up to {@value #LINEAR_SCAN_LIMIT} objects
+ * a query tests all of them instead.
+ * The index is updated object by object when they move, see {@link #update(int, float, float, float)}.
+ * The methods can be called on any thread.
+ * </p>
+ */
+/* package */ class GazeIndex {
+    private static final String TAG = "GazeIndex";
+
+    // Value of find() when no object is gazed at, and of a link to no object.
+    static final int NONE = -1;
+
+    // Largest number of objects which are all tested, since that is faster than walking the grid.
+    private static final int LINEAR_SCAN_LIMIT = 128;
+
+    private static final float SQRT_3 = (float) Math.sqrt(3);
+
+    private final float mCellSize;
+    private final int mCellsPerSide;
+    // Coordinate of the lower corner of the grid, on each axis.
+    private final float mMin;
+    private final float mHalfExtent;
+    private final float mTanAngleLimit;
+    private final float mCosAngleLimit;
+
+    // Center of each object, and the cell which lists it: a cell of the grid, the outside list, or NONE.
+    private final float[] mCenters;
+    private final int[] mCells;
+    // Links of the doubly linked list of the cell of each object.
+    private final int[] mNext;
+    private final int[] mPrevious;
+    // Number of objects whose center has been set.
+    private int mIndexedCount;
+    // First object of each cell; the last entry is the first object outside the grid.
+    private final int[] mFirst;
+    private final int mOutside;
+    // Query which last visited each cell, so that a query tests the objects of a cell once.
+    private final int[] mVisits;
+    private int mQuery;
+
+    // State of the current query: gaze ray, filter and best object so far.
+    private float mRayX;
+    private float mRayY;
+    private float mRayZ;
+    private float mDirectionX;
+    private float mDirectionY;
+    private float mDirectionZ;
+    private Filter mFilter;
+    private int mBest;
+    private float mBestCosOfAngle;
+
+    /**
+     * Chooses the objects which can be picked.
+     */
+    interface Filter {
+        /**
+         * @param object The index of the object.
+         * @return True if the object can be picked.
+         */
+        boolean accept(int object);
+    }
+
+    /**
+     * Constructor. Objects are not indexed until their center is set by {@link #update(int, float, float, float)}.
+     *
+     * @param capacity   The number of objects, which are identified by their index from 0.
+     * @param halfExtent Half the side of the grid, which is centered on the origin of the scene. It should
+     *                   contain all the objects, which are otherwise tested by every query.
+     * @param cellSize   The side of a cell.
+     * @param angleLimit The largest angle between the gaze and an object which can be picked, in radians.
+     */
+    GazeIndex(int capacity, float halfExtent, float cellSize, float angleLimit) {
+        mCellSize = cellSize;
+        mCellsPerSide = Math.max(1, (int) Math.ceil(2 * halfExtent / cellSize));
+        mHalfExtent = mCellsPerSide * cellSize / 2;
+        mMin = -mHalfExtent;
+        mTanAngleLimit = (float) Math.tan(angleLimit);
+        mCosAngleLimit = (float) Math.cos(angleLimit);
+
+        mCenters = new float[capacity * 3];
+        mCells = new int[capacity];
+        mNext = new int[capacity];
+        mPrevious = new int[capacity];
+        Arrays.fill(mCells, NONE);
+
+        int cellCount = mCellsPerSide * mCellsPerSide * mCellsPerSide;
+        mOutside = cellCount;
+        mFirst = new int[cellCount + 1];
+        Arrays.fill(mFirst, NONE);
+        mVisits = new int[cellCount];
+    }
+
+    /**
+     * Sets the center of an object, moving it to the cell which contains it.
+     *
+     * @param object The index of the object.
+     * @param x      The x coordinate of the center.
+     * @param y      The y coordinate of the center.
+     * @param z      The z coordinate of the center.
+     */
+    synchronized public void update(int object, float x, float y, float z) {
+        mCenters[object * 3] = x;
+        mCenters[object * 3 + 1] = y;
+        mCenters[object * 3 + 2] = z;
+
+        int cell = getCell(x, y, z);
+        if (cell == mCells[object])
+            return;
+        if (mCells[object] != NONE)
+            unlink(object);
+        else
+            mIndexedCount++;
+        link(object, cell);
+    }
+
+    /**
+     * Finds the object the user is looking at: among the objects within the angle limit of the gaze,
+     * the one nearest to it.
+     *
+     * @param headView The transform from the scene to the head space, with no scaling; the gaze is
+     *                 the forward direction (0, 0, -1) of the head.
+     * @param filter   The objects which can be picked.
+     * @return The index of the object, or {@link #NONE}.
+     */
+    synchronized public int find(float[] headView, Filter filter) {
+        // The head view is a rotation R followed by a translation t: the head is at -R^T t and the gaze
+        // is -R^T (0, 0, 1), the opposite of the third row of R.
+        mRayX = -(headView[0] * headView[12] + headView[1] * headView[13] + headView[2] * headView[14]);
+        mRayY = -(headView[4] * headView[12] + headView[5] * headView[13] + headView[6] * headView[14]);
+        mRayZ = -(headView[8] * headView[12] + headView[9] * headView[13] + headView[10] * headView[14]);
+        mDirectionX = -headView[2];
+        mDirectionY = -headView[6];
+        mDirectionZ = -headView[10];
+        mFilter = filter;
+        mBest = NONE;
+        mBestCosOfAngle = mCosAngleLimit;
+        if (mIndexedCount <= LINEAR_SCAN_LIMIT) {
+            for (int object = 0; object < mCells.length; object++) {
+                if (mCells[object] != NONE)
+                    test(object);
+            }
+            mFilter = null;
+            return mBest;
+        }
+
+        if (++mQuery == Integer.MAX_VALUE) {
+            Arrays.fill(mVisits, 0);
+            mQuery = 1;
+        }
+
+        testList(mFirst[mOutside]);
+
+        // Samples the ray once per cell size, up to the farthest corner of the grid. Around each sample,
+        // the objects in the cone are within its radius there, grown by half the step on both sides.
+        float step = mCellSize;
+        float reach = (float) Math.sqrt(mRayX * mRayX + mRayY * mRayY + mRayZ * mRayZ) + mHalfExtent * SQRT_3;
+        for (float distance = 0; distance <= reach + step; distance += step) {
+            float half = (distance + step / 2) * mTanAngleLimit + step / 2;
+            visitCells(mRayX + mDirectionX * distance, mRayY + mDirectionY * distance,
+                    mRayZ + mDirectionZ * distance, half);
+        }
+
+        mFilter = null;
+        return mBest;
+    }
+
+    /**
+     * Tests the objects of the cells which overlap a cube, except those already visited by the query.
+     *
+     * @param x    The x coordinate of the center of the cube.
+     * @param y    The y coordinate of the center of the cube.
+     * @param z    The z coordinate of the center of the cube.
+     * @param half Half the side of the cube.
+     */
+    private void visitCells(float x, float y, float z, float half) {
+        int minX = toCellCoordinate(x - half);
+        int maxX = toCellCoordinate(x + half);
+        int minY = toCellCoordinate(y - half);
+        int maxY = toCellCoordinate(y + half);
+        int minZ = toCellCoordinate(z - half);
+        int maxZ = toCellCoordinate(z + half);
+        int last = mCellsPerSide - 1;
+        if (maxX < 0 || maxY < 0 || maxZ < 0 || minX > last || minY > last || minZ > last)
+            return;
+
+        for (int k = Math.max(minZ, 0); k <= Math.min(maxZ, last); k++) {
+            for (int j = Math.max(minY, 0); j <= Math.min(maxY, last); j++) {
+                for (int i = Math.max(minX, 0); i <= Math.min(maxX, last); i++) {
+                    int cell = (k * mCellsPerSide + j) * mCellsPerSide + i;
+                    if (mVisits[cell] == mQuery)
+                        continue;
+                    mVisits[cell] = mQuery;
+                    testList(mFirst[cell]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests the objects of a list against the gaze of the current query.
+     *
+     * @param first The first object of the list.
+     */
+    private void testList(int first) {
+        for (int object = first; object != NONE; object = mNext[object]) {
+            test(object);
+        }
+    }
+
+    /**
+     * Tests an object against the gaze of the current query, keeping it if it is the nearest so far.
+     *
+     * @param object The index of the object.
+     */
+    private void test(int object) {
+        float x = mCenters[object * 3] - mRayX;
+        float y = mCenters[object * 3 + 1] - mRayY;
+        float z = mCenters[object * 3 + 2] - mRayZ;
+        // Cosine of the angle between the center and the gaze, which has unit length.
+        float cosOfAngle = (x * mDirectionX + y * mDirectionY + z * mDirectionZ)
+                / (float) Math.sqrt(x * x + y * y + z * z);
+        if (cosOfAngle > mBestCosOfAngle && mFilter.accept(object)) {
+            mBestCosOfAngle = cosOfAngle;
+            mBest = object;
+        }
+    }
+
+    /**
+     * @return The cell which contains a point, or the outside list.
+     */
+    private int getCell(float x, float y, float z) {
+        int i = toCellCoordinate(x);
+        int j = toCellCoordinate(y);
+        int k = toCellCoordinate(z);
+        if (i < 0 || j < 0 || k < 0 || i >= mCellsPerSide || j >= mCellsPerSide || k >= mCellsPerSide)
+            return mOutside;
+        return (k * mCellsPerSide + j) * mCellsPerSide + i;
+    }
+
+    /**
+     * @param coordinate A coordinate in the scene.
+     * @return The coordinate of the cell which contains it, which may be outside the grid.
+     */
+    private int toCellCoordinate(float coordinate) {
+        return (int) Math.floor((coordinate - mMin) / mCellSize);
+    }
+
+    /**
+     * Adds an object at the start of the list of a cell.
+     */
+    private void link(int object, int cell) {
+        int first = mFirst[cell];
+        mNext[object] = first;
+        mPrevious[object] = NONE;
+        if (first != NONE)
+            mPrevious[first] = object;
+        mFirst[cell] = object;
+        mCells[object] = cell;
+    }
+
+    /**
+     * Removes an object from the list of its cell.
+     */
+    private void unlink(int object) {
+        int next = mNext[object];
+        int previous = mPrevious[object];
+        if (previous != NONE)
+            mNext[previous] = next;
+        else
+            mFirst[mCells[object]] = next;
+        if (next != NONE)
+            mPrevious[next] = previous;
+        mCells[object] = NONE;
+    }
+}
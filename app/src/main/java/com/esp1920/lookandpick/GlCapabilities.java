@@ -0,0 +1,122 @@
+package com.esp1920.lookandpick;
+
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class describes what the current GL context supports: its version and its extensions.
+ * <p>
+ * Capabilities are read on the GL thread by {@link #detect()} when the context is created; other
+ * threads, such as the {@link AssetLoader} workers, can wait for them with {@link #await(long)}.
+ * </p>
+ */
+/* package */ class GlCapabilities {
+    private static final String TAG = "GlCapabilities";
+    private final static String DETECTED = "GL context: ";
+
+    private static final Pattern VERSION_PATTERN = Pattern.compile("OpenGL ES (\\d+)\\.(\\d+)");
+
+    private static final CountDownLatch sDetected = new CountDownLatch(1);
+    private static volatile GlCapabilities sCurrent;
+
+    private final int mMajorVersion;
+    private final int mMinorVersion;
+    private final Set<String> mExtensions;
+    private final int mMaxTextureSize;
+
+    /**
+     * Constructor. It is private: use {@link #detect()}.
+     */
+    private GlCapabilities(int majorVersion, int minorVersion, Set<String> extensions, int maxTextureSize) {
+        mMajorVersion = majorVersion;
+        mMinorVersion = minorVersion;
+        mExtensions = extensions;
+        mMaxTextureSize = maxTextureSize;
+    }
+
+    /**
+     * Reads the capabilities of the current GL context. It must be called on the GL thread each time
+     * a new context is created.
+     *
+     * @return The capabilities of the context.
+     */
+    public static GlCapabilities detect() {
+        int major = 2;
+        int minor = 0;
+        String version = GLES20.glGetString(GLES20.GL_VERSION);
+        if (version != null) {
+            Matcher matcher = VERSION_PATTERN.matcher(version);
+            if (matcher.find()) {
+                major = Integer.parseInt(matcher.group(1));
+                minor = Integer.parseInt(matcher.group(2));
+            }
+        }
+
+        Set<String> extensions = new HashSet<>();
+        String extensionString = GLES20.glGetString(GLES20.GL_EXTENSIONS);
+        if (extensionString != null)
+            extensions.addAll(Arrays.asList(extensionString.trim().split("\\s+")));
+
+        int[] maxTextureSize = new int[1];
+        GLES20.glGetIntegerv(GLES20.GL_MAX_TEXTURE_SIZE, maxTextureSize, 0);
+
+        Log.i(TAG, DETECTED + version);
+        sCurrent = new GlCapabilities(major, minor, extensions, maxTextureSize[0]);
+        sDetected.countDown();
+        return sCurrent;
+    }
+
+    /**
+     * Waits until the capabilities of a GL context are known.
+     *
+     * @param timeoutMillis The maximum time to wait, in milliseconds.
+     * @return The capabilities of the current context, or null if no context has been created in time.
+     */
+    public static GlCapabilities await(long timeoutMillis) {
+        try {
+            sDetected.await(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return sCurrent;
+    }
+
+    /**
+     * @return True if the context supports OpenGL ES 3.0 or later.
+     */
+    public boolean isEs3() {
+        return mMajorVersion >= 3;
+    }
+
+    /**
+     * @param major The major version.
+     * @param minor The minor version.
+     * @return True if the context supports at least the given OpenGL ES version.
+     */
+    public boolean isAtLeast(int major, int minor) {
+        return mMajorVersion > major || (mMajorVersion == major && mMinorVersion >= minor);
+    }
+
+    /**
+     * @return The maximum width and height of a texture.
+     */
+    public int getMaxTextureSize() {
+        return mMaxTextureSize;
+    }
+
+    /**
+     * @param extension The name of the extension, such as "GL_OES_vertex_array_object".
+     * @return True if the context supports the extension.
+     */
+    public boolean hasExtension(String extension) {
+        return mExtensions.contains(extension);
+    }
+}
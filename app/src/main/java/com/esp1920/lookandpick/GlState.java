@@ -0,0 +1,260 @@
+package com.esp1920.lookandpick;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * This class tracks the GL state set through it, so that calls which would not change it are skipped.
+ * <p>
+ * It covers the bound program, texture, buffers and vertex array object, and the vertex attributes
+ * with their instance divisors.
+ * Where vertex array objects are supported (OpenGL ES 3.0), meshes store their attributes in them and
+ * switch all of them with a single call.
+ * The tracked state is only valid while nobody else changes it: it must be forgotten with
+ * {@link #invalidate()} when other code, such as the GVR distortion pass, may have used the context,
+ * and when a bound object is deleted.
+ * The numbers of requested and skipped calls are logged every {@value #REPORT_INTERVAL} frames.
+ * All methods must be called on the GL thread.
+ * </p>
+ */
+/* package */ class GlState {
+    private static final String TAG = "GlState";
+    private final static String REPORT = "GL state calls per frame: %.1f requested, %.1f skipped";
+
+    // Number of frames between two reports.
+    private static final int REPORT_INTERVAL = 300;
+
+    // Value of a binding which is not known.
+    private static final int UNKNOWN = -1;
+    // Attributes tracked, starting from location 0.
+    private static final int MAX_ATTRIBS = 8;
+    // Fields of the pointer of an attribute: buffer, size, type, normalized, stride and offset.
+    private static final int POINTER_FIELDS = 6;
+
+    private static boolean sVertexArrays;
+
+    private static int sProgram;
+    private static int sActiveTexture;
+    private static int sTextureTarget;
+    private static int sTexture;
+    private static int sArrayBuffer;
+    private static int sVertexArray;
+    // Attribute state belongs to the bound vertex array object, as does the element array buffer.
+    private static int sElementBuffer;
+    // Attributes known to be enabled: the others may be enabled or not.
+    private static final boolean[] sEnabledAttribs = new boolean[MAX_ATTRIBS];
+    private static final int[] sAttribPointers = new int[MAX_ATTRIBS * POINTER_FIELDS];
+    private static final int[] sAttribDivisors = new int[MAX_ATTRIBS];
+
+    private static long sRequestedCalls;
+    private static long sSkippedCalls;
+    private static int sFrames;
+
+    /**
+     * Class only contains static methods.
+     */
+    private GlState() {
+    }
+
+    /**
+     * Starts tracking a new GL context. It must be called when the context is created.
+     *
+     * @param capabilities The capabilities of the context.
+     */
+    public static void reset(GlCapabilities capabilities) {
+        // The Java bindings only expose vertex array objects from OpenGL ES 3.0, not the OES extension.
+        sVertexArrays = capabilities.isEs3();
+        invalidate();
+        sRequestedCalls = 0;
+        sSkippedCalls = 0;
+        sFrames = 0;
+    }
+
+    /**
+     * Forgets the tracked state, so that the next calls are all made.
+     */
+    public static void invalidate() {
+        sProgram = UNKNOWN;
+        sActiveTexture = UNKNOWN;
+        sTextureTarget = UNKNOWN;
+        sTexture = UNKNOWN;
+        sArrayBuffer = UNKNOWN;
+        sVertexArray = UNKNOWN;
+        invalidateVertexArrayState();
+    }
+
+    /**
+     * @return True if meshes can store their attributes in vertex array objects.
+     */
+    public static boolean hasVertexArrays() {
+        return sVertexArrays;
+    }
+
+    /**
+     * Makes a program current, see glUseProgram().
+     *
+     * @param program The program.
+     */
+    public static void useProgram(int program) {
+        if (skip(sProgram == program))
+            return;
+        GLES20.glUseProgram(program);
+        sProgram = program;
+    }
+
+    /**
+     * Binds a texture to GL_TEXTURE0, see glBindTexture().
+     *
+     * @param target  The texture target, such as GL_TEXTURE_2D.
+     * @param texture The texture.
+     */
+    public static void bindTexture(int target, int texture) {
+        if (!skip(sActiveTexture == GLES20.GL_TEXTURE0)) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+            sActiveTexture = GLES20.GL_TEXTURE0;
+        }
+        if (skip(sTextureTarget == target && sTexture == texture))
+            return;
+        GLES20.glBindTexture(target, texture);
+        // Only the binding of one target is tracked.
+        sTextureTarget = target;
+        sTexture = texture;
+    }
+
+    /**
+     * Binds a buffer object, see glBindBuffer().
+     *
+     * @param target The buffer target: GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+     * @param buffer The buffer.
+     */
+    public static void bindBuffer(int target, int buffer) {
+        boolean elements = target == GLES20.GL_ELEMENT_ARRAY_BUFFER;
+        if (skip((elements ? sElementBuffer : sArrayBuffer) == buffer))
+            return;
+        GLES20.glBindBuffer(target, buffer);
+        if (elements)
+            sElementBuffer = buffer;
+        else
+            sArrayBuffer = buffer;
+    }
+
+    /**
+     * Binds a vertex array object, see glBindVertexArray(). The attributes and the element array buffer
+     * are then those stored in it. Before changing the element array buffer with no mesh in mind, bind 0
+     * so that the vertex array object of a mesh is not modified.
+     *
+     * @param vertexArray The vertex array object, or 0 for none.
+     */
+    public static void bindVertexArray(int vertexArray) {
+        if (!sVertexArrays || skip(sVertexArray == vertexArray))
+            return;
+        GLES30.glBindVertexArray(vertexArray);
+        sVertexArray = vertexArray;
+        invalidateVertexArrayState();
+    }
+
+    /**
+     * Enables a vertex attribute array, see glEnableVertexAttribArray().
+     *
+     * @param attrib The location of the attribute.
+     */
+    public static void enableVertexAttribArray(int attrib) {
+        if (skip(attrib < MAX_ATTRIBS && sEnabledAttribs[attrib]))
+            return;
+        GLES20.glEnableVertexAttribArray(attrib);
+        if (attrib < MAX_ATTRIBS)
+            sEnabledAttribs[attrib] = true;
+    }
+
+    /**
+     * Sets where a vertex attribute is read from the bound array buffer, see glVertexAttribPointer().
+     *
+     * @param attrib     The location of the attribute.
+     * @param size       The number of components.
+     * @param type       The type of the components.
+     * @param normalized True to read integer components between 0 and 1.
+     * @param stride     The number of bytes between consecutive vertices.
+     * @param offset     The offset of the first component in the buffer.
+     */
+    public static void vertexAttribPointer(int attrib, int size, int type, boolean normalized, int stride,
+                                           int offset) {
+        int base = attrib * POINTER_FIELDS;
+        int[] pointer = sAttribPointers;
+        boolean redundant = attrib < MAX_ATTRIBS && sArrayBuffer != UNKNOWN && pointer[base] == sArrayBuffer
+                && pointer[base + 1] == size && pointer[base + 2] == type
+                && pointer[base + 3] == (normalized ? 1 : 0) && pointer[base + 4] == stride
+                && pointer[base + 5] == offset;
+        if (skip(redundant))
+            return;
+        GLES20.glVertexAttribPointer(attrib, size, type, normalized, stride, offset);
+        if (attrib < MAX_ATTRIBS) {
+            pointer[base] = sArrayBuffer;
+            pointer[base + 1] = size;
+            pointer[base + 2] = type;
+            pointer[base + 3] = normalized ? 1 : 0;
+            pointer[base + 4] = stride;
+            pointer[base + 5] = offset;
+        }
+    }
+
+    /**
+     * Sets how often a vertex attribute advances in instanced draws, see glVertexAttribDivisor().
+     * It needs an OpenGL ES 3.0 context.
+     *
+     * @param attrib  The location of the attribute.
+     * @param divisor The number of instances which read each value, or 0 to read one per vertex.
+     */
+    public static void vertexAttribDivisor(int attrib, int divisor) {
+        if (skip(attrib < MAX_ATTRIBS && sAttribDivisors[attrib] == divisor))
+            return;
+        GLES30.glVertexAttribDivisor(attrib, divisor);
+        if (attrib < MAX_ATTRIBS)
+            sAttribDivisors[attrib] = divisor;
+    }
+
+    /**
+     * Ends the drawing of a frame by the app, before the GVR distortion pass uses the context.
+     * The vertex array object of the last mesh is unbound, so that the buffer and attribute calls of
+     * the distortion pass do not change it, and the tracked state is forgotten.
+     * It also counts the frame, and logs the numbers of calls every {@value #REPORT_INTERVAL} frames.
+     */
+    public static void endFrame() {
+        bindVertexArray(0);
+        invalidate();
+
+        if (++sFrames < REPORT_INTERVAL)
+            return;
+        Log.d(TAG, String.format(Locale.US, REPORT, (double) sRequestedCalls / sFrames,
+                (double) sSkippedCalls / sFrames));
+        sRequestedCalls = 0;
+        sSkippedCalls = 0;
+        sFrames = 0;
+    }
+
+    /**
+     * Counts a requested call.
+     *
+     * @param redundant True if the call would not change the state.
+     * @return The value of redundant.
+     */
+    private static boolean skip(boolean redundant) {
+        sRequestedCalls++;
+        if (redundant)
+            sSkippedCalls++;
+        return redundant;
+    }
+
+    /**
+     * Forgets the state stored in the bound vertex array object.
+     */
+    private static void invalidateVertexArrayState() {
+        sElementBuffer = UNKNOWN;
+        Arrays.fill(sEnabledAttribs, false);
+        Arrays.fill(sAttribPointers, UNKNOWN);
+        Arrays.fill(sAttribDivisors, UNKNOWN);
+    }
+}
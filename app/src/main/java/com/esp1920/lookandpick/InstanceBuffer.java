@@ -0,0 +1,112 @@
+package com.esp1920.lookandpick;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * This class streams the per-instance attributes of instanced draws to GPU memory: for each instance,
+ * the tint (a_InstanceTint) and the translation of its model matrix (a_InstanceTranslation).
+ * <p>
+ * The instances of all the draws of a frame are added, then uploaded at once; each draw then reads
+ * its instances from its first one, see {@link #setAttributes(int)}. Instances do not depend on the
+ * eye, whose view projection matrix is a uniform, so both eyes draw the same instances.
+ * The buffer object is created on the GL thread of an OpenGL ES 3.0 context, and all the methods
+ * must be called there.
+ * </p>
+ */
+/* package */ class InstanceBuffer {
+    private static final String TAG = "InstanceBuffer";
+
+    // Locations of the per-instance attributes, after those of the meshes.
+    static final int TINT_ATTRIB = 2;
+    static final int TRANSLATION_ATTRIB = 3;
+
+    // Layout of an instance: tint, then translation.
+    private static final int TINT_SIZE = 4;
+    private static final int TRANSLATION_SIZE = 3;
+    private static final int INSTANCE_FLOATS = TINT_SIZE + TRANSLATION_SIZE;
+    private static final int INSTANCE_STRIDE = INSTANCE_FLOATS * 4;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int[] buffer = new int[1];
+    private FloatBuffer data;
+    private int count;
+
+    /**
+     * Constructor. It must be called on the GL thread of an OpenGL ES 3.0 context.
+     */
+    public InstanceBuffer() {
+        GLES20.glGenBuffers(1, buffer, 0);
+        data = allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Removes all the instances.
+     */
+    public void clear() {
+        data.clear();
+        count = 0;
+    }
+
+    /**
+     * Adds an instance.
+     *
+     * @param tint        The color multiplied to the texture.
+     * @param translation The translation of the model matrix.
+     * @return The index of the instance.
+     */
+    public int add(float[] tint, float[] translation) {
+        if (data.remaining() < INSTANCE_FLOATS) {
+            FloatBuffer larger = allocate(data.capacity() / INSTANCE_FLOATS * 2);
+            data.flip();
+            larger.put(data);
+            data = larger;
+        }
+        data.put(tint, 0, TINT_SIZE);
+        data.put(translation, 0, TRANSLATION_SIZE);
+        return count++;
+    }
+
+    /**
+     * Copies the instances to GPU memory. The previous content is discarded, so that the driver does
+     * not need to wait for the draws which still read it.
+     */
+    public void upload() {
+        GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+        data.flip();
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, count * INSTANCE_STRIDE, data, GLES20.GL_STREAM_DRAW);
+        data.position(data.limit());
+        data.limit(data.capacity());
+    }
+
+    /**
+     * Sets the per-instance attributes of the bound vertex array object, so that they are read from
+     * the given instance on.
+     *
+     * @param firstInstance The index of the first instance to draw.
+     */
+    public void setAttributes(int firstInstance) {
+        int offset = firstInstance * INSTANCE_STRIDE;
+        GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, buffer[0]);
+        setAttribute(TINT_ATTRIB, TINT_SIZE, offset);
+        setAttribute(TRANSLATION_ATTRIB, TRANSLATION_SIZE, offset + TINT_SIZE * 4);
+    }
+
+    private static void setAttribute(int attrib, int size, int offset) {
+        GlState.enableVertexAttribArray(attrib);
+        GlState.vertexAttribDivisor(attrib, 1);
+        GlState.vertexAttribPointer(attrib, size, GLES20.GL_FLOAT, false, INSTANCE_STRIDE, offset);
+    }
+
+    /**
+     * @param instances The number of instances.
+     * @return A direct buffer with room for the instances.
+     */
+    private static FloatBuffer allocate(int instances) {
+        return ByteBuffer.allocateDirect(instances * INSTANCE_STRIDE).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
@@ -1,12 +1,13 @@
 package com.esp1920.lookandpick;
 
-import android.content.Intent;
 import android.content.res.Resources;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 import android.os.Bundle;
 import android.os.Handler;
 import android.util.Log;
+import android.view.View;
+import android.view.ViewGroup;
 
 import com.google.vr.ndk.base.Properties;
 import com.google.vr.ndk.base.Value;
@@ -19,8 +20,11 @@ import com.google.vr.sdk.base.Viewport;
 import com.google.vr.ndk.base.Properties.PropertyType;
 
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.TimeUnit;
 
 import javax.microedition.khronos.egl.EGLConfig;
 
@@ -34,12 +38,21 @@ import javax.microedition.khronos.egl.EGLConfig;
  * </p>
  */
 
-public class MainActivity extends GvrActivity implements GvrView.StereoRenderer {
+public class MainActivity extends GvrActivity implements GvrView.Renderer {
     private static final String TAG = "MainActivity";
 
     private final static String SPACE = " ";
     private final static String SPACES = "     ";
     private final static String NEW_LINE = "\n";
+    private final static String INVALID_SETTING = "Invalid setting: ";
+    private final static String PRESERVE_CONTEXT_METHOD = "setPreserveEGLContextOnPause";
+    private final static String CONTEXT_NOT_PRESERVED = "The GL context will not be preserved while paused";
+    private final static String CONTEXT_CREATED = "GL context created in %d ms";
+    private final static String CONTEXT_RECREATED = "GL context lost and recreated in %d ms";
+    private final static String FIRST_FRAME = "First frame %d ms after resume, with %s GL context";
+    private final static String PRESERVED_CONTEXT = "the preserved";
+    private final static String NEW_CONTEXT = "a new";
+    private final static String OBJECTS_RESTORED = "Objects on the scene restored %d ms after the GL context was lost";
 
     // Useful constants which indicate the time expressed in seconds.
     private final static int FIRST_LEVEL_DURATION = 20;
@@ -57,53 +70,135 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
     // Number of objects that can be rendered.
     private static final int TARGET_MESH_COUNT = 8;
     private static final int TARGET_NUMBER = 6;
+    // The textures of the 3D objects share a texture array when supported.
+    private static final int TARGET_TEXTURE_LAYERS = TargetManager.SHADER_HIGHLIGHT
+            ? TARGET_MESH_COUNT : 2 * TARGET_MESH_COUNT;
+
+    // When true, OpenGL ES 3.0 contexts draw all the visible objects which share a mesh, a level of
+    // detail and a texture with a single instanced draw. Set it to false to draw them one by one.
+    private static final boolean INSTANCING = true;
+
+    // Color multiplied to the texture of the object the user is looking at, when it is highlighted
+    // by the shader. It matches the darker selected textures.
+    private static final float[] SELECTED_TINT = {0.6f, 0.55f, 0.45f, 1.0f};
+    private static final float[] NO_TINT = {1.0f, 1.0f, 1.0f, 1.0f};
+
+    // Number of eyes drawn in a frame, when stereo is enabled.
+    private static final int MAX_EYES = 2;
 
     private static final float Z_NEAR = 0.01f;
     private static final float Z_FAR = 20.0f;
 
-    // Convenience vector for extracting the position from a matrix via multiplication.
-    private static final float[] POS_MATRIX_MULTIPLY_VEC = {0.0f, 0.0f, 0.0f, 1.0f};
-    private static final float[] FORWARD_VEC = {0.0f, 0.0f, -1.0f, 1.f};
+    // A target is drawn with level of detail i + 1 when its projected radius, as a fraction of half
+    // the viewport height, is below LOD_PROJECTED_SIZES[i].
+    private static final float[] LOD_PROJECTED_SIZES = {0.35f, 0.2f};
 
     private static final String OBJECT_SOUND_FILE = "audio/HelloVR_Loop.ogg";
     private static final String SUCCESS_SOUND_FILE = "audio/HelloVR_Activation.ogg";
 
     private static final float DEFAULT_FLOOR_HEIGHT = -3.0f;
 
-    private static final float ANGLE_LIMIT = 0.2f;
+    // Largest angle between the gaze and a target which can be picked, in radians. It is also used by the
+    // tests of the gaze index, as are the settings of its grid.
+    static final float ANGLE_LIMIT = 0.2f;
+    // Value of gazedTarget when the user is not looking at any object.
+    private static final int NO_TARGET = GazeIndex.NONE;
+    // Grid of the gaze index: it covers the positions of the targets, which are at most 7 away from the
+    // center of the scene.
+    static final float GAZE_INDEX_HALF_EXTENT = 8.0f;
+    static final float GAZE_INDEX_CELL_SIZE = 2.0f;
 
     // GL shader programs used to render objects.
     private static String[] OBJECT_VERTEX_SHADER_CODE;
     private static String[] OBJECT_FRAGMENT_SHADER_CODE;
+    private static String[] LAYERED_OBJECT_VERTEX_SHADER_CODE;
+    private static String[] LAYERED_OBJECT_FRAGMENT_SHADER_CODE;
+    private static String[] INSTANCED_OBJECT_VERTEX_SHADER_CODE;
+    private static String[] INSTANCED_OBJECT_FRAGMENT_SHADER_CODE;
+    private static String[] INSTANCED_LAYERED_OBJECT_FRAGMENT_SHADER_CODE;
 
     private int objectProgram;
 
-    private int objectModelViewProjectionParam;
+    private int objectViewProjectionParam;
+    private int objectTranslationParam;
+    private int objectTintParam;
+    private int objectPositionScaleParam;
+    private int objectPositionOffsetParam;
+    private int objectPositionParam;
+    private int objectUvParam;
+
+    // Program used for the 3D objects whose textures are layers of a texture array, which is
+    // bound once for all of them. It is 0 if texture arrays are not supported.
+    private int layeredObjectProgram;
+    private int layeredObjectViewProjectionParam;
+    private int layeredObjectTranslationParam;
+    private int layeredObjectLayerParam;
+    private int layeredObjectTintParam;
+    private int layeredObjectPositionScaleParam;
+    private int layeredObjectPositionOffsetParam;
+
+    // Programs used to draw the 3D objects instanced, with standalone textures or with layers of the
+    // texture array. They are 0 if instancing is not supported or disabled.
+    private int instancedObjectProgram;
+    private int instancedObjectViewProjectionParam;
+    private int instancedObjectPositionScaleParam;
+    private int instancedObjectPositionOffsetParam;
+    private int instancedLayeredObjectProgram;
+    private int instancedLayeredObjectViewProjectionParam;
+    private int instancedLayeredObjectLayerParam;
+    private int instancedLayeredObjectPositionScaleParam;
+    private int instancedLayeredObjectPositionOffsetParam;
+    // Per-instance attributes of the instanced draws.
+    private InstanceBuffer instanceBuffer;
 
     private TexturedMesh roomTextureMesh;
     private Texture roomTexture;
-    private ArrayList<TexturedMesh> targetObjectMeshes;
-    private ArrayList<Texture> targetObjectNotSelectedTextures;
-    private ArrayList<Texture> targetObjectSelectedTextures;
+    // Meshes and textures of the 3D objects, indexed by mesh index. They are acquired from the
+    // TargetManager only while some object on the scene uses them, so an entry is null otherwise.
+    private TexturedMesh[] targetObjectMeshes;
+    private Texture[] targetObjectNotSelectedTextures;
+    private Texture[] targetObjectSelectedTextures;
+    // The level category whose objects have already been requested in advance.
+    private ObjCategory streamedCategory;
 
     private Random random;
 
     private float[] camera;
-    private float[] view;
+    // View, projection and view projection matrices of each eye in the current frame: the left eye,
+    // or the single eye when stereo is disabled, then the right eye.
+    private float[][] eyeViews;
+    private float[][] eyePerspectives;
+    private float[][] eyeViewProjections;
+    private int eyeCount;
     private float[] headView;
-    private float[] modelViewProjection;
-    private float[] modelView;
+    // Center of the object being culled, in the view space of an eye.
+    private float[] viewPosition;
 
-    // Array that contains the position of each PickableTarget object.
+    // State of the objects on the scene, walked by the loops which run every frame.
+    private TargetStore mTargetStore;
+    // Views of the objects in mTargetStore, by index.
     private PickableTarget[] mPickableTargets;
     // ArrayList which contains the right mesh index of each PickableTarget object.
     private ArrayList<Target> mTargets;
+    private Target mRoom;
 
     private Position roomPosition;
 
-    private float[] tempPosition;
     private float[] headRotation;
 
+    // Index in mPickableTargets of the object the user is looking at, or NO_TARGET. It is resolved once
+    // per frame on the GL thread, then read by the drawing and by the trigger on the UI thread.
+    private volatile int gazedTarget = NO_TARGET;
+    // Centers of the objects on the scene, to find the one the user is looking at.
+    private GazeIndex mGazeIndex;
+    // Objects which can be picked: those whose assets are loaded.
+    private final GazeIndex.Filter mLoadedFilter = new GazeIndex.Filter() {
+        @Override
+        public boolean accept(int object) {
+            return isLoaded(object);
+        }
+    };
+
     // Used to initialize Google VR Audio Engine.
     private GvrAudioEngine gvrAudioEngine;
     private volatile int sourceId = GvrAudioEngine.INVALID_ID;
@@ -139,18 +234,42 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
     private VrTextView msgTv;
     private VrTextView finalStatusTv;
 
+    // Used to log how long the scene takes to come back after the activity is paused, in nanoseconds
+    // from System.nanoTime(). A time is 0 when nothing is being measured.
+    private volatile long resumeTime;
+    private volatile boolean contextCreatedSinceResume;
+    private boolean contextCreated;
+    private long contextLostTime;
+
+    // Records the startup, until all the objects on the scene are drawn.
+    private StartupProfiler mProfiler = StartupProfiler.getInstance();
+    private long frameStartTime;
+    private boolean firstFrameDrawn;
+
+    // Draws of the targets of the current eye, sorted before they are submitted.
+    private RenderQueue mRenderQueue = new RenderQueue();
+
     /**
      * Sets the view to our GvrView and initializes the transformation matrices we will use
      * to render our scene.
      */
     @Override
     public void onCreate(Bundle savedInstanceState) {
+        mProfiler.start();
+        long startTime = StartupProfiler.now();
         super.onCreate(savedInstanceState);
 
+        long phaseStartTime = StartupProfiler.now();
         initializeGvrView();
+        mProfiler.recordPhase("initializeGvrView", phaseStartTime);
 
         OBJECT_VERTEX_SHADER_CODE = getApplicationContext().getResources().getStringArray(R.array.vertex_shader_code);
         OBJECT_FRAGMENT_SHADER_CODE = getApplicationContext().getResources().getStringArray(R.array.fragment_shader_code);
+        LAYERED_OBJECT_VERTEX_SHADER_CODE = getApplicationContext().getResources().getStringArray(R.array.layered_vertex_shader_code);
+        LAYERED_OBJECT_FRAGMENT_SHADER_CODE = getApplicationContext().getResources().getStringArray(R.array.layered_fragment_shader_code);
+        INSTANCED_OBJECT_VERTEX_SHADER_CODE = getApplicationContext().getResources().getStringArray(R.array.instanced_vertex_shader_code);
+        INSTANCED_OBJECT_FRAGMENT_SHADER_CODE = getApplicationContext().getResources().getStringArray(R.array.instanced_fragment_shader_code);
+        INSTANCED_LAYERED_OBJECT_FRAGMENT_SHADER_CODE = getApplicationContext().getResources().getStringArray(R.array.instanced_layered_fragment_shader_code);
 
         // Initializes the first level.
         mLevel = new Level(FIRST_LEVEL_DURATION);
@@ -160,33 +279,49 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
 
         random = new Random();
 
+        createTargets();
+
         camera = new float[16];
-        view = new float[16];
-        modelViewProjection = new float[16];
-        modelView = new float[16];
+        eyeViews = new float[MAX_EYES][16];
+        eyePerspectives = new float[MAX_EYES][];
+        eyeViewProjections = new float[MAX_EYES][16];
+        viewPosition = new float[4];
         headView = new float[16];
 
-        // Creates TARGET_NUMBER pickable objects on the scene without any associated mesh and with
-        // a random position.
+        mGazeIndex = new GazeIndex(TARGET_NUMBER, GAZE_INDEX_HALF_EXTENT, GAZE_INDEX_CELL_SIZE, ANGLE_LIMIT);
+        mTargetStore = new TargetStore(TARGET_NUMBER, mTargets);
         mPickableTargets = new PickableTarget[TARGET_NUMBER];
         for (int i = 0; i < TARGET_NUMBER; i++)
-            mPickableTargets[i] = new PickableTarget();
+            mPickableTargets[i] = new PickableTarget(mTargetStore, i);
+        createPickableTargets();
+
+        // Applies the texture quality chosen at launch, if any, before loading the textures.
+        String textureQuality = getIntent().getStringExtra(TextureQuality.SETTING_KEY);
+        if (textureQuality != null) {
+            try {
+                TextureQuality.setPreferred(this, textureQuality);
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, INVALID_SETTING + textureQuality);
+            }
+        }
 
-        // Changes the position of each PickableTarget object in order to avoid overlapping.
-        for (int i = 0; i < TARGET_NUMBER; i++)
-            mPickableTargets[i].setPosition(newPosition());
+        // Starts loading the room and the first objects in background, while the rest of the
+        // activity is set up.
+        prefetchTargets();
 
-        tempPosition = new float[4];
         headRotation = new float[4];
         roomPosition = new Position();
 
+        phaseStartTime = StartupProfiler.now();
         gvrAudioEngine = new GvrAudioEngine(this, GvrAudioEngine.RenderingMode.BINAURAL_HIGH_QUALITY);
+        mProfiler.recordPhase("createAudioEngine", phaseStartTime);
 
         scoreTv = (VrTextView) findViewById(R.id.score);
         msgTv = (VrTextView) findViewById(R.id.msg);
         finalStatusTv = (VrTextView) findViewById(R.id.gameover);
 
         gameOver = false;
+        mProfiler.recordPhase("onCreate", startTime);
     }
 
     /**
@@ -202,6 +337,38 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
         gvrView.setTransitionViewEnabled(true);
         setGvrView(gvrView);
         gvrProperties = gvrView.getGvrApi().getCurrentProperties();
+        // Keeps the GL context, with the shader programs and the uploaded assets, while the activity is paused.
+        if (!preserveGlContext(gvrView))
+            Log.w(TAG, CONTEXT_NOT_PRESERVED);
+    }
+
+    /**
+     * Asks the GL surface which renders the given view to keep its GL context while the activity is paused.
+     * The surface is looked for in the view and its children, since the {@link GvrView} may wrap it.
+     * The context is still lost if the device can not keep it, in which case onSurfaceCreated() is called again.
+     *
+     * @param view The view to look into.
+     * @return True if the surface has been found.
+     */
+    private static boolean preserveGlContext(View view) {
+        try {
+            view.getClass().getMethod(PRESERVE_CONTEXT_METHOD, boolean.class).invoke(view, true);
+            return true;
+        } catch (NoSuchMethodException e) {
+            // Not a GL surface: looks into the children.
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            Log.w(TAG, CONTEXT_NOT_PRESERVED, e);
+            return false;
+        }
+
+        if (view instanceof ViewGroup) {
+            ViewGroup group = (ViewGroup) view;
+            for (int i = 0; i < group.getChildCount(); i++) {
+                if (preserveGlContext(group.getChildAt(i)))
+                    return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -212,6 +379,8 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
 
     @Override
     public void onResume() {
+        contextCreatedSinceResume = false;
+        resumeTime = System.nanoTime();
         super.onResume();
         gvrAudioEngine.resume();
     }
@@ -226,7 +395,7 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
         mHandler.removeCallbacksAndMessages(null);
         if (mLevel.getLevelNumber() > 2)
             for (int i = 0; i < TARGET_NUMBER; i++) {
-                mPickableTargets[i].getTimer().stopAndHide();
+                mPickableTargets[i].stopAndHide();
             }
         GvrView gvrView = (GvrView) findViewById(R.id.gvr_view);
         gvrView.shutdown();
@@ -236,6 +405,7 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
     @Override
     public void onRendererShutdown() {
         floorHeight.close();
+        // GL resources are freed together with the GL context.
     }
 
     @Override
@@ -246,47 +416,112 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
      * Creates the buffers we use to store information about the 3D world.
      * OpenGL doesn't use Java arrays, but rather needs data in a format it can understand.
      * Hence we use ByteBuffers.
+     * This is called again only if the GL context has been lost while the activity was paused: the
+     * assets are then uploaded again from the copies kept in memory by the {@link TargetManager}.
      *
      * @param config The EGL configuration used when creating the surface.
      */
     @Override
     public void onSurfaceCreated(EGLConfig config) {
+        long startTime = System.nanoTime();
+
+        // Lets the asset loaders choose the texture formats supported by the new context.
+        GlCapabilities capabilities = GlCapabilities.detect();
+        GlState.reset(capabilities);
+
         GLES20.glClearColor(0.0f, 0.0f, 0.0f, 0.0f);
 
+        long phaseStartTime = StartupProfiler.now();
         // Builds a GL shader program using vertex and fragment shaders as arrays of strings.
-        objectProgram = Util.compileProgram(OBJECT_VERTEX_SHADER_CODE, OBJECT_FRAGMENT_SHADER_CODE);
-
-        int objectPositionParam = GLES20.glGetAttribLocation(objectProgram, "a_Position");
-        int objectUvParam = GLES20.glGetAttribLocation(objectProgram, "a_UV");
+        // Attributes are bound to the same locations in all programs, so they can draw the same meshes.
+        objectProgram = Util.compileProgram(OBJECT_VERTEX_SHADER_CODE, OBJECT_FRAGMENT_SHADER_CODE,
+                "a_Position", "a_UV");
+
+        objectPositionParam = GLES20.glGetAttribLocation(objectProgram, "a_Position");
+        objectUvParam = GLES20.glGetAttribLocation(objectProgram, "a_UV");
+
+        // Returns the location of the uniform variable u_ViewProjection within the program 'objectProgram'.
+        objectViewProjectionParam = GLES20.glGetUniformLocation(objectProgram, "u_ViewProjection");
+        objectTranslationParam = GLES20.glGetUniformLocation(objectProgram, "u_Translation");
+        objectTintParam = GLES20.glGetUniformLocation(objectProgram, "u_Tint");
+        // Uniforms which decode the positions of quantized meshes.
+        objectPositionScaleParam = GLES20.glGetUniformLocation(objectProgram, "u_PositionScale");
+        objectPositionOffsetParam = GLES20.glGetUniformLocation(objectProgram, "u_PositionOffset");
+
+        if (capabilities.isEs3()) {
+            layeredObjectProgram = Util.compileProgram(LAYERED_OBJECT_VERTEX_SHADER_CODE,
+                    LAYERED_OBJECT_FRAGMENT_SHADER_CODE, "a_Position", "a_UV");
+            layeredObjectViewProjectionParam = GLES20.glGetUniformLocation(layeredObjectProgram,
+                    "u_ViewProjection");
+            layeredObjectTranslationParam = GLES20.glGetUniformLocation(layeredObjectProgram, "u_Translation");
+            layeredObjectLayerParam = GLES20.glGetUniformLocation(layeredObjectProgram, "u_Layer");
+            layeredObjectTintParam = GLES20.glGetUniformLocation(layeredObjectProgram, "u_Tint");
+            layeredObjectPositionScaleParam = GLES20.glGetUniformLocation(layeredObjectProgram,
+                    "u_PositionScale");
+            layeredObjectPositionOffsetParam = GLES20.glGetUniformLocation(layeredObjectProgram,
+                    "u_PositionOffset");
+        } else {
+            layeredObjectProgram = 0;
+        }
 
-        // Returns the location of the uniform variable u_MVP within the program 'objectProgram'.
-        objectModelViewProjectionParam = GLES20.glGetUniformLocation(objectProgram, "u_MVP");
+        if (capabilities.isEs3() && INSTANCING) {
+            instancedObjectProgram = Util.compileProgram(INSTANCED_OBJECT_VERTEX_SHADER_CODE,
+                    INSTANCED_OBJECT_FRAGMENT_SHADER_CODE, "a_Position", "a_UV", "a_InstanceTint",
+                    "a_InstanceTranslation");
+            instancedObjectViewProjectionParam = GLES20.glGetUniformLocation(instancedObjectProgram,
+                    "u_ViewProjection");
+            instancedObjectPositionScaleParam = GLES20.glGetUniformLocation(instancedObjectProgram,
+                    "u_PositionScale");
+            instancedObjectPositionOffsetParam = GLES20.glGetUniformLocation(instancedObjectProgram,
+                    "u_PositionOffset");
+            instancedLayeredObjectProgram = Util.compileProgram(INSTANCED_OBJECT_VERTEX_SHADER_CODE,
+                    INSTANCED_LAYERED_OBJECT_FRAGMENT_SHADER_CODE, "a_Position", "a_UV", "a_InstanceTint",
+                    "a_InstanceTranslation");
+            instancedLayeredObjectViewProjectionParam = GLES20.glGetUniformLocation(instancedLayeredObjectProgram,
+                    "u_ViewProjection");
+            instancedLayeredObjectLayerParam = GLES20.glGetUniformLocation(instancedLayeredObjectProgram, "u_Layer");
+            instancedLayeredObjectPositionScaleParam = GLES20.glGetUniformLocation(instancedLayeredObjectProgram,
+                    "u_PositionScale");
+            instancedLayeredObjectPositionOffsetParam = GLES20.glGetUniformLocation(instancedLayeredObjectProgram,
+                    "u_PositionOffset");
+            instanceBuffer = new InstanceBuffer();
+        } else {
+            instancedObjectProgram = 0;
+            instancedLayeredObjectProgram = 0;
+            instanceBuffer = null;
+        }
+        mProfiler.recordPhase("compilePrograms", phaseStartTime);
 
         roomPosition.setPosition(0, DEFAULT_FLOOR_HEIGHT, 0);
 
-        // Avoids any delays during start-up due to decoding of sound files.
-        new Thread(
-                new Runnable() {
-                    @Override
-                    public void run() {
-                        // Starts spatial audio playback of OBJECT_SOUND_FILE, according to the
-                        // model's position. The returned sourceId handle is stored and allows for
-                        // repositioning the sound object whenever the target position changes.
-                        gvrAudioEngine.preloadSoundFile(OBJECT_SOUND_FILE);
-                        sourceId = gvrAudioEngine.createSoundObject(OBJECT_SOUND_FILE);
-                        for (int i = 0; i < TARGET_NUMBER; i++)
-                            gvrAudioEngine.setSoundObjectPosition(
-                                    sourceId,
-                                    mPickableTargets[i].getPosition().getXCoordinate(),
-                                    mPickableTargets[i].getPosition().getYCoordinate(),
-                                    mPickableTargets[i].getPosition().getZCoordinate());
-                        gvrAudioEngine.playSound(sourceId, true /* looped playback */);
-                        // Preload an unspatialized sound to be played on a successful trigger on the
-                        // target.
-                        gvrAudioEngine.preloadSoundFile(SUCCESS_SOUND_FILE);
-                    }
-                })
-                .start();
+        // The audio engine does not depend on the GL context, so the sounds are only started once.
+        if (!contextCreated) {
+            // Avoids any delays during start-up due to decoding of sound files.
+            new Thread(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            long audioStartTime = StartupProfiler.now();
+                            // Starts spatial audio playback of OBJECT_SOUND_FILE, according to the
+                            // model's position. The returned sourceId handle is stored and allows for
+                            // repositioning the sound object whenever the target position changes.
+                            gvrAudioEngine.preloadSoundFile(OBJECT_SOUND_FILE);
+                            sourceId = gvrAudioEngine.createSoundObject(OBJECT_SOUND_FILE);
+                            for (int i = 0; i < TARGET_NUMBER; i++)
+                                gvrAudioEngine.setSoundObjectPosition(
+                                        sourceId,
+                                        mTargetStore.getXCoordinate(i),
+                                        mTargetStore.getYCoordinate(i),
+                                        mTargetStore.getZCoordinate(i));
+                            gvrAudioEngine.playSound(sourceId, true /* looped playback */);
+                            // Preload an unspatialized sound to be played on a successful trigger on the
+                            // target.
+                            gvrAudioEngine.preloadSoundFile(SUCCESS_SOUND_FILE);
+                            mProfiler.recordPhase("preloadSounds", audioStartTime);
+                        }
+                    })
+                    .start();
+        }
 
         // Updates sound position for the first time.
         for (int i = 0; i < TARGET_NUMBER; i++)
@@ -294,21 +529,36 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
 
         Util.checkGlError("onSurfaceCreated");
 
-        // Initializes all necessary objects.
+        // Initializes the room. Loads it again if the GL context has been recreated.
+        mTargetManager.onSurfaceCreated(capabilities, TARGET_TEXTURE_LAYERS);
+        prefetchTargets();
+        phaseStartTime = StartupProfiler.now();
         try {
-            Target room = new Target(ObjName.ROOM, getString(R.string.room_obj), getString(R.string.room_png), getString(R.string.room_png));
-            mTargetManager.applyTexture(this, room, objectPositionParam, objectUvParam);
-            roomTextureMesh = mTargetManager.getTexturedMesh();
-            roomTexture = mTargetManager.getSelectedTexture();
-            addTargets(objectPositionParam, objectUvParam);
+            roomTextureMesh = mTargetManager.acquireMesh(this, mRoom.getFilePath(), objectPositionParam, objectUvParam);
+            roomTexture = mTargetManager.acquireTexture(this, mRoom.getSelectedTexturePath(), false);
         } catch (IOException e) {
             Log.e(TAG, getString(R.string.init_failed), e);
         }
-        // Chooses randomly the first mesh to show for each pickable object.
-        for (int i = 0; i < TARGET_NUMBER; i++) {
-            mPickableTargets[i].setMeshIndex(random.nextInt(TARGET_MESH_COUNT));
-            mPickableTargets[i].setTarget(mTargets.get(mPickableTargets[i].getMeshIndex()));
+        mProfiler.recordPhase("acquireRoom", phaseStartTime);
+
+        // The 3D objects are uploaded by streamTargets() as soon as they are ready.
+        targetObjectMeshes = new TexturedMesh[TARGET_MESH_COUNT];
+        targetObjectNotSelectedTextures = new Texture[TARGET_MESH_COUNT];
+        targetObjectSelectedTextures = new Texture[TARGET_MESH_COUNT];
+        streamedCategory = null;
+
+        mProfiler.recordPhase("onSurfaceCreated", startTime);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        contextCreatedSinceResume = true;
+        if (contextCreated) {
+            // The game goes on: only the GL resources had to be created again.
+            Log.i(TAG, String.format(Locale.US, CONTEXT_RECREATED, elapsed));
+            contextLostTime = startTime;
+            return;
         }
+        Log.i(TAG, String.format(Locale.US, CONTEXT_CREATED, elapsed));
+        contextCreated = true;
+
         // Manages the transition to the next level.
         changeLevel();
     }
@@ -323,20 +573,29 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
         // Updates the sound location to match it with the new target position.
         if (sourceId != GvrAudioEngine.INVALID_ID) {
             gvrAudioEngine.setSoundObjectPosition(
-                    sourceId, pickableTarget.getPosition().getXCoordinate(),
-                    pickableTarget.getPosition().getYCoordinate(),
-                    pickableTarget.getPosition().getZCoordinate());
+                    sourceId, pickableTarget.getXCoordinate(),
+                    pickableTarget.getYCoordinate(),
+                    pickableTarget.getZCoordinate());
         }
         Util.checkGlError("updateTargetPosition");
     }
 
     /**
-     * Prepares OpenGL ES before we draw a frame.
+     * Updates the scene before we draw a frame: moves the player and the camera, and loads the objects.
      *
      * @param headTransform The head transformation in the new frame.
      */
-    @Override
-    public void onNewFrame(HeadTransform headTransform) {
+    private void prepareFrame(HeadTransform headTransform) {
+        // The GVR SDK uses the GL context between frames.
+        GlState.invalidate();
+        frameStartTime = StartupProfiler.now();
+        if (resumeTime != 0) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - resumeTime);
+            Log.i(TAG, String.format(Locale.US, FIRST_FRAME, elapsed,
+                    contextCreatedSinceResume ? NEW_CONTEXT : PRESERVED_CONTEXT));
+            resumeTime = 0;
+        }
+
         // Updates eye position along the Z axis to perform movement.
         eyeZ = mPlayerMovement.updateEyePosition(headTransform, eyeZ);
 
@@ -345,7 +604,7 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
         Matrix.setLookAtM(camera, 0, 0, 0, eyeZ, 0.0f, 0.0f, -1f, 0.0f, 1.0f, 0.0f);
 
         // Controls if the floor height is available.
-        // If true the modelRoom matrix is prepared to be used on onDrawEye method.
+        // If true the modelRoom matrix is prepared to be used on onDrawFrame method.
         if (gvrProperties.get(PropertyType.TRACKING_FLOOR_HEIGHT, floorHeight)) {
             // The floor height can change each frame when tracking system detects a new floor position.
             roomPosition.setPosition(0, floorHeight.asFloat(), 0);
@@ -364,125 +623,465 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
                 headRotation[0], headRotation[1], headRotation[2], headRotation[3]);
         // Regular update call to GVR audio engine.
         gvrAudioEngine.update();
+
+        streamTargets();
+        resolveGaze();
+    }
+
+    /**
+     * Loads the 3D objects when they are first needed: requests the assets of the objects on the
+     * scene and of the category requested by the current level, then uploads at most one of the
+     * objects on the scene whose assets are ready, to keep the frame time low.
+     * The assets of objects which are no longer on the scene are given back to the TargetManager,
+     * which keeps them cached while memory allows.
+     * This is called on the GL thread before each frame.
+     */
+    private void streamTargets() {
+        // The objects of the level's category will be needed to satisfy the request (see checkMesh()).
+        ObjCategory category = mLevel.getCategory();
+        if (category != streamedCategory) {
+            for (int i = 0; i < TARGET_MESH_COUNT; i++) {
+                if (targetObjectMeshes[i] == null && mTargets.get(i).getCategory() == category)
+                    mTargetManager.prefetch(this, mTargets.get(i));
+            }
+            streamedCategory = category;
+        }
+
+        for (int i = 0; i < TARGET_MESH_COUNT; i++) {
+            if (targetObjectMeshes[i] != null && !isOnScene(i))
+                removeObject(i);
+        }
+
+        boolean uploaded = false;
+        boolean missing = false;
+        for (int i = 0; i < TARGET_NUMBER; i++) {
+            int meshIndex = mTargetStore.getMeshIndex(i);
+            if (targetObjectMeshes[meshIndex] != null)
+                continue;
+
+            Target target = mTargets.get(meshIndex);
+            // Does nothing if the assets are already loaded or being loaded.
+            mTargetManager.prefetch(this, target);
+            if (!uploaded && mTargetManager.isReady(target)) {
+                addObject(meshIndex);
+                uploaded = true;
+            } else {
+                missing = true;
+            }
+        }
+
+        // The startup is over when all the objects on the scene can be drawn.
+        if (!missing)
+            mProfiler.finish(this);
+
+        if (contextLostTime != 0 && !missing) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - contextLostTime);
+            Log.i(TAG, String.format(Locale.US, OBJECTS_RESTORED, elapsed));
+            contextLostTime = 0;
+        }
+    }
+
+    /**
+     * Checks if any object on the scene uses the given mesh.
+     *
+     * @param meshIndex The mesh index to look for.
+     * @return True if at least one {@link PickableTarget} uses the mesh, false otherwise.
+     */
+    private boolean isOnScene(int meshIndex) {
+        for (int i = 0; i < TARGET_NUMBER; i++) {
+            if (mTargetStore.getMeshIndex(i) == meshIndex)
+                return true;
+        }
+        return false;
     }
 
     /**
-     * Draws a frame for an eye.
+     * Checks if the assets of the object are in GPU memory, so that it can be drawn and picked.
      *
-     * @param eye The eye to render. Includes all required transformations.
+     * @param index The index of the object to check.
+     * @return True if the object is loaded, false otherwise.
+     */
+    private boolean isLoaded(int index) {
+        return targetObjectMeshes[mTargetStore.getMeshIndex(index)] != null;
+    }
+
+    /**
+     * Draws a frame for both eyes at once.
+     * <p>
+     * The work which does not depend on the eye is done once per frame: the targets are culled, given
+     * their level of detail and gaze test, queued and sorted once, and on OpenGL ES 3.0 the instances of
+     * both eyes are uploaded together. Then the queue is submitted to the viewport of each eye in turn,
+     * after setting the view projection matrix of that eye in the programs.
+     * </p>
+     *
+     * @param headTransform The head transformation in the new frame.
+     * @param leftEye       The left eye, or the single eye if stereo is disabled.
+     * @param rightEye      The right eye, or null if stereo is disabled.
      */
     @Override
-    public void onDrawEye(Eye eye) {
+    public void onDrawFrame(HeadTransform headTransform, Eye leftEye, Eye rightEye) {
+        prepareFrame(headTransform);
+
+        long startTime = StartupProfiler.now();
         GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        // The eyes share the framebuffer, so it is cleared once for both of them.
         // The clear color doesn't matter here because it's completely obscured by
         // the room. However, the color buffer is still cleared because it may
         // improve performance.
+        GLES20.glDisable(GLES20.GL_SCISSOR_TEST);
         GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
 
-        // Applies the eye transformation to the camera.
-        Matrix.multiplyMM(view, 0, eye.getEyeView(), 0, camera, 0);
-
-        float[] perspective = eye.getPerspective(Z_NEAR, Z_FAR);
+        // Applies the eye transformations to the camera.
+        eyeCount = rightEye != null ? 2 : 1;
+        for (int i = 0; i < eyeCount; i++) {
+            Eye eye = i == 0 ? leftEye : rightEye;
+            Matrix.multiplyMM(eyeViews[i], 0, eye.getEyeView(), 0, camera, 0);
+            eyePerspectives[i] = eye.getPerspective(Z_NEAR, Z_FAR);
+            Matrix.multiplyMM(eyeViewProjections[i], 0, eyePerspectives[i], 0, eyeViews[i], 0);
+        }
 
-        // Builds the ModelView and ModelViewProjection matrices for calculating the position of the target object.
-        // Then, the target is drawn on the scene.
+        // The targets are queued once for both eyes, then all the targets are drawn in the order of the queue.
+        long now = TargetStore.now();
         for (int i = 0; i < TARGET_NUMBER; i++) {
-            Matrix.multiplyMM(modelView, 0, view, 0, mPickableTargets[i].getPosition().getModel(), 0);
-            Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
-            drawTarget(mPickableTargets[i]);
+            queueTarget(i, now);
+        }
+        mRenderQueue.sort();
+        if (instanceBuffer != null)
+            uploadInstances();
+
+        for (int i = 0; i < eyeCount; i++) {
+            (i == 0 ? leftEye : rightEye).getViewport().setGLViewport();
+            drawEye(i);
         }
+        mRenderQueue.clear();
+        if (!firstFrameDrawn)
+            mProfiler.recordPhase("firstDrawFrame", startTime);
+    }
 
-        // Sets modelView for the room, so it's drawn in the correct location.
-        Matrix.multiplyMM(modelView, 0, view, 0, roomPosition.getModel(), 0);
-        Matrix.multiplyMM(modelViewProjection, 0, perspective, 0, modelView, 0);
+    /**
+     * Draws the queued targets and the room with the matrices of an eye, in the current viewport.
+     *
+     * @param eye The index of the eye.
+     */
+    private void drawEye(int eye) {
+        setViewProjection(eyeViewProjections[eye]);
+        if (instanceBuffer != null) {
+            drawTargetsInstanced();
+        } else {
+            for (int i = 0; i < mRenderQueue.size(); i++) {
+                drawTarget(mRenderQueue.get(i));
+            }
+        }
+
+        // The room is drawn last, since most of it is behind the targets.
         drawRoom();
     }
 
+    /**
+     * Sets the view projection matrix of an eye in all the programs. The objects then only set their
+     * translation, which the shaders add to their positions.
+     *
+     * @param viewProjection The view projection matrix of the eye.
+     */
+    private void setViewProjection(float[] viewProjection) {
+        GlState.useProgram(objectProgram);
+        GLES20.glUniformMatrix4fv(objectViewProjectionParam, 1, false, viewProjection, 0);
+        if (layeredObjectProgram != 0) {
+            GlState.useProgram(layeredObjectProgram);
+            GLES20.glUniformMatrix4fv(layeredObjectViewProjectionParam, 1, false, viewProjection, 0);
+        }
+        if (instanceBuffer != null) {
+            GlState.useProgram(instancedObjectProgram);
+            GLES20.glUniformMatrix4fv(instancedObjectViewProjectionParam, 1, false, viewProjection, 0);
+            GlState.useProgram(instancedLayeredObjectProgram);
+            GLES20.glUniformMatrix4fv(instancedLayeredObjectViewProjectionParam, 1, false, viewProjection, 0);
+        }
+    }
+
     @Override
     public void onFinishFrame(Viewport viewport) {
+        if (!firstFrameDrawn) {
+            mProfiler.recordPhase("firstFrame", frameStartTime);
+            firstFrameDrawn = true;
+        }
+        // The distortion pass of the GVR SDK runs next, on the same context.
+        GlState.endFrame();
     }
 
     /**
-     * Draws the target object.
+     * Queues the target object for drawing, with the level of detail that fits its size on the screen.
+     * Objects outside the field of view of both eyes are skipped.
      *
-     * @param pickableTarget The PickableTarget object to draw.
+     * @param index The index of the object to draw.
+     * @param now   The current time, from {@link TargetStore#now()}.
      */
-    public void drawTarget(PickableTarget pickableTarget) {
+    private void queueTarget(int index, long now) {
         // Draws the objects on the scene if their timer are not finished and the game is not over.
-        if (!gameOver && !pickableTarget.isHidden()) {
-            GLES20.glUseProgram(objectProgram);
-            GLES20.glUniformMatrix4fv(objectModelViewProjectionParam, 1, false, modelViewProjection, 0);
+        if (gameOver || mTargetStore.isHidden(index, now))
+            return;
+
+        // The mesh index is read once, so that the mesh and the textures are those of the same target.
+        int meshIndex = mTargetStore.getMeshIndex(index);
+        TexturedMesh mesh = targetObjectMeshes[meshIndex];
+        if (mesh == null)
+            return;
+        // The model matrix of the object is a translation to its position.
+        float[] positions = mTargetStore.getPositions();
+        float x = positions[index * 3];
+        float y = positions[index * 3 + 1];
+        float z = positions[index * 3 + 2];
+        boolean visible = false;
+        // The level of detail is the finest needed by an eye, the depth the one from the nearest eye.
+        int level = Integer.MAX_VALUE;
+        float depth = Float.MAX_VALUE;
+        for (int i = 0; i < eyeCount; i++) {
+            transformPoint(eyeViews[i], x, y, z);
+            if (!isInFrustum(mesh.getRadius(), eyePerspectives[i]))
+                continue;
+            visible = true;
+            // The depth is read from the view space of this eye before anything else uses viewPosition.
+            float eyeDepth = -viewPosition[2];
+            level = Math.min(level, getDetailLevel(mesh.getRadius(), eyeDepth, eyePerspectives[i]));
+            depth = Math.min(depth, eyeDepth);
+        }
+        if (!visible)
+            return;
+
+        RenderQueue.Draw draw = mRenderQueue.add();
+        draw.translation[0] = x;
+        draw.translation[1] = y;
+        draw.translation[2] = z;
+        draw.mesh = mesh;
+        draw.meshKey = meshIndex;
+        draw.level = level;
+        draw.depth = depth;
+
+        // The object the user is looking at is either tinted by the shader or drawn with its
+        // selected texture.
+        boolean selected = isLookingAtTarget(index);
+        if (selected && !TargetManager.SHADER_HIGHLIGHT) {
+            draw.texture = targetObjectSelectedTextures[meshIndex];
+        } else {
+            draw.texture = targetObjectNotSelectedTextures[meshIndex];
+        }
+        draw.tint = selected && TargetManager.SHADER_HIGHLIGHT ? SELECTED_TINT : NO_TINT;
+        boolean layered = draw.texture.getLayer() >= 0;
+        if (instanceBuffer != null)
+            draw.program = layered ? instancedLayeredObjectProgram : instancedObjectProgram;
+        else
+            draw.program = layered ? layeredObjectProgram : objectProgram;
+    }
+
+    /**
+     * Uploads the translations and tints of all the queued target objects at once, in the order of the
+     * queue. They are shared by all the eyes.
+     */
+    private void uploadInstances() {
+        int count = mRenderQueue.size();
+        if (count == 0)
+            return;
 
-            if (isLookingAtTarget(pickableTarget)) {
-                targetObjectSelectedTextures.get(pickableTarget.getMeshIndex()).bind();
+        instanceBuffer.clear();
+        for (int i = 0; i < count; i++) {
+            RenderQueue.Draw draw = mRenderQueue.get(i);
+            instanceBuffer.add(draw.tint, draw.translation);
+        }
+        instanceBuffer.upload();
+    }
+
+    /**
+     * Draws the queued target objects with one instanced draw for each run of consecutive draws which
+     * share the program, the texture, the mesh and its level of detail.
+     * The instances must have been uploaded by {@link #uploadInstances()}.
+     */
+    private void drawTargetsInstanced() {
+        int count = mRenderQueue.size();
+        int first = 0;
+        while (first < count) {
+            RenderQueue.Draw draw = mRenderQueue.get(first);
+            int last = first + 1;
+            while (last < count && draw.canBatch(mRenderQueue.get(last)))
+                last++;
+
+            GlState.useProgram(draw.program);
+            Texture texture = draw.texture;
+            if (texture.getLayer() >= 0) {
+                GLES20.glUniform1f(instancedLayeredObjectLayerParam, texture.getLayer());
+                texture.bind();
+                draw.mesh.drawInstanced(draw.level, instancedLayeredObjectPositionScaleParam,
+                        instancedLayeredObjectPositionOffsetParam, instanceBuffer, first, last - first);
             } else {
-                targetObjectNotSelectedTextures.get(pickableTarget.getMeshIndex()).bind();
+                texture.bind();
+                draw.mesh.drawInstanced(draw.level, instancedObjectPositionScaleParam,
+                        instancedObjectPositionOffsetParam, instanceBuffer, first, last - first);
             }
-            targetObjectMeshes.get(pickableTarget.getMeshIndex()).draw();
+            first = last;
         }
     }
 
+    /**
+     * Draws a target object queued by {@link #queueTarget(int, long)}.
+     *
+     * @param draw The queued draw.
+     */
+    private void drawTarget(RenderQueue.Draw draw) {
+        Texture texture = draw.texture;
+        GlState.useProgram(draw.program);
+        if (texture.getLayer() >= 0) {
+            // All the layers share the same texture: only the layer index changes between objects.
+            GLES20.glUniform3fv(layeredObjectTranslationParam, 1, draw.translation, 0);
+            GLES20.glUniform4fv(layeredObjectTintParam, 1, draw.tint, 0);
+            GLES20.glUniform1f(layeredObjectLayerParam, texture.getLayer());
+            // The texture array is only bound by the first object which uses it.
+            texture.bind();
+            draw.mesh.draw(draw.level, layeredObjectPositionScaleParam, layeredObjectPositionOffsetParam);
+        } else {
+            GLES20.glUniform3fv(objectTranslationParam, 1, draw.translation, 0);
+            GLES20.glUniform4fv(objectTintParam, 1, draw.tint, 0);
+            texture.bind();
+            draw.mesh.draw(draw.level, objectPositionScaleParam, objectPositionOffsetParam);
+        }
+    }
+
+    /**
+     * Writes into viewPosition a point transformed by a view matrix.
+     *
+     * @param view The view matrix.
+     * @param x    The x coordinate of the point.
+     * @param y    The y coordinate of the point.
+     * @param z    The z coordinate of the point.
+     */
+    private void transformPoint(float[] view, float x, float y, float z) {
+        viewPosition[0] = view[0] * x + view[4] * y + view[8] * z + view[12];
+        viewPosition[1] = view[1] * x + view[5] * y + view[9] * z + view[13];
+        viewPosition[2] = view[2] * x + view[6] * y + view[10] * z + view[14];
+    }
+
+    /**
+     * Checks if the object whose center in view space is in viewPosition can be seen, testing its bounding
+     * sphere against the side planes of the view frustum.
+     *
+     * @param radius      The radius of the object.
+     * @param perspective The projection matrix of the eye.
+     * @return True if the object may be visible, false if it is entirely outside the field of view.
+     */
+    private boolean isInFrustum(float radius, float[] perspective) {
+        float x = viewPosition[0];
+        float y = viewPosition[1];
+        float z = viewPosition[2];
+        if (z - radius > -Z_NEAR)
+            return false;
+
+        // A point is inside the frustum if -w <= x_clip <= w, where w = -z.
+        // Each side gives a plane through the eye; the signed distance of the center must exceed -radius.
+        return distanceToPlane(perspective[0], 1 - perspective[8], x, z) >= -radius
+                && distanceToPlane(-perspective[0], 1 + perspective[8], x, z) >= -radius
+                && distanceToPlane(perspective[5], 1 - perspective[9], y, z) >= -radius
+                && distanceToPlane(-perspective[5], 1 + perspective[9], y, z) >= -radius;
+    }
+
+    /**
+     * @return The signed distance of the point (a, z) from the plane a * scale - z * offset = 0, positive
+     * on the inner side of the frustum.
+     */
+    private static float distanceToPlane(float scale, float offset, float a, float z) {
+        return (a * scale - z * offset) / (float) Math.sqrt(scale * scale + offset * offset);
+    }
+
+    /**
+     * Chooses the level of detail of an object from its distance to an eye.
+     *
+     * @param radius      The radius of the object.
+     * @param depth       The distance of the center of the object along the view direction of the eye.
+     * @param perspective The projection matrix of the eye.
+     * @return The level of detail, 0 for the full mesh.
+     */
+    private int getDetailLevel(float radius, float depth, float[] perspective) {
+        // The radius of the object projected on the screen, relative to half the viewport height.
+        float projectedSize = radius * perspective[5] / depth;
+        int level = 0;
+        while (level < LOD_PROJECTED_SIZES.length && projectedSize < LOD_PROJECTED_SIZES[level]) {
+            level++;
+        }
+        return level;
+    }
+
     /**
      * Draws the room using the GL shader program created before.
      */
     public void drawRoom() {
-        GLES20.glUseProgram(objectProgram);
+        GlState.useProgram(objectProgram);
         /*
-          Specifies the value of a uniform matrix for the program object.
-          Uses values contained in float[16] modelViewProjection to fill a 4x4 matrix.
-          The first parameter is the location of the uniform variable to be modified (u_MVP).
-          The other is the value used to update the variable.
+          Specifies the value of a uniform vector for the program object.
+          Uses the translation in the last column of the model matrix of the room.
+          The first parameter is the location of the uniform variable to be modified (u_Translation).
+          The view projection matrix of the eye has been set by setViewProjection().
         */
-        GLES20.glUniformMatrix4fv(objectModelViewProjectionParam, 1, false, modelViewProjection, 0);
+        GLES20.glUniform3fv(objectTranslationParam, 1, roomPosition.getModel(), 12);
+        GLES20.glUniform4fv(objectTintParam, 1, NO_TINT, 0);
         roomTexture.bind();
-        roomTextureMesh.draw();
+        roomTextureMesh.draw(0, objectPositionScaleParam, objectPositionOffsetParam);
         Util.checkGlError("drawRoom");
     }
 
     /**
      * Called when the Cardboard trigger is pulled.
-     * The method checks all the objects on the scene and hides the one the user is looking at.
+     * The method hides the object the user is looking at, as resolved for the last frame.
      * If the player picks the wrong object, he will lose a life and if all lives are lost
      * the game will over.
      * Otherwise, the score will increase.
      */
     @Override
     public void onCardboardTrigger() {
-        for (int i = 0; i < TARGET_NUMBER; i++)
-            if (isLookingAtTarget(mPickableTargets[i])) {
-                if (checkCategory(mPickableTargets[i].getTarget().getCategory())) {
-                    gameStatus.increaseScore(mPickableTargets[i].getTarget().getScore());
-                } else {
-                    gameStatus.decreaseLives(1);
-                    if (gameStatus.isGameOver()) {
-                        gameOver = true;
-                        gameEnd();
-                        break;
-                    }
-                }
-                // Displays current score and remaining lives.
-                showStatus();
-                successSourceId = gvrAudioEngine.createStereoSound(SUCCESS_SOUND_FILE);
-                gvrAudioEngine.playSound(successSourceId, false /* looping disabled */);
-
-                hideTarget(mPickableTargets[i]);
-                checkMesh(mPickableTargets[i]);
-                break;
+        final int gazed = gazedTarget;
+        if (gazed == NO_TARGET)
+            return;
+        // The object moves away when picked, so it cannot be picked again before the next frame.
+        gazedTarget = NO_TARGET;
+
+        PickableTarget pickableTarget = mPickableTargets[gazed];
+        if (checkCategory(pickableTarget.getTarget().getCategory())) {
+            gameStatus.increaseScore(pickableTarget.getTarget().getScore());
+        } else {
+            gameStatus.decreaseLives(1);
+            if (gameStatus.isGameOver()) {
+                gameOver = true;
+                gameEnd();
+                return;
             }
+        }
+        // Displays current score and remaining lives.
+        showStatus();
+        successSourceId = gvrAudioEngine.createStereoSound(SUCCESS_SOUND_FILE);
+        gvrAudioEngine.playSound(successSourceId, false /* looping disabled */);
+
+        // The object is moved on the GL thread, between two frames, since its state is read while drawing.
+        getGvrView().queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                hideTarget(gazed);
+                checkMesh(mPickableTargets[gazed]);
+            }
+        });
+    }
+
+    /**
+     * Finds the object the user is looking at: among the loaded objects within ANGLE_LIMIT of the forward
+     * direction of the head, the nearest to it. Only the objects near the gaze are tested, see {@link GazeIndex}.
+     * It is called once per frame, after the headView has been updated; the result is read by
+     * {@link #isLookingAtTarget(int)} and {@link #onCardboardTrigger()}.
+     */
+    private void resolveGaze() {
+        gazedTarget = mGazeIndex.find(headView, mLoadedFilter);
     }
 
     /**
-     * Checks if user is looking at the target object by calculating where the object is in eye-space.
+     * Checks if user is looking at the target object, as resolved by {@link #resolveGaze()}.
      *
      * @return True if the user is looking at the target object.
      */
-    private boolean isLookingAtTarget(PickableTarget pickableTarget) {
-        // Converts object space to camera space. Uses the headView from onNewFrame.
-        Matrix.multiplyMM(modelView, 0, headView, 0, pickableTarget.getPosition().getModel(), 0);
-        Matrix.multiplyMV(tempPosition, 0, modelView, 0, POS_MATRIX_MULTIPLY_VEC, 0);
-
-        float angle = Util.angleBetweenVectors(tempPosition, FORWARD_VEC);
-        return angle < ANGLE_LIMIT;
+    private boolean isLookingAtTarget(int index) {
+        return gazedTarget == index;
     }
 
     /**
@@ -512,7 +1111,14 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
         final Runnable hide = new Runnable() {
             @Override
             public void run() {
-                hideAllTargets();
+                // The objects are moved on the GL thread, between two frames, since their state is read
+                // while drawing.
+                getGvrView().queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        hideAllTargets();
+                    }
+                });
                 mHandler.removeCallbacks(this);
             }
         };
@@ -584,12 +1190,12 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
 
     /**
      * Performs the game over procedure, hiding all the object and stopping their timer,
-     * and restarts the app after {@value TIME_BEFORE_RESTART} seconds.
+     * and restarts the game after {@value TIME_BEFORE_RESTART} seconds.
      */
     private void gameEnd() {
         if (mLevel.getLevelNumber() > 2)
             for (int i = 0; i < TARGET_NUMBER; i++) {
-                mPickableTargets[i].getTimer().stopAndHide();
+                mPickableTargets[i].stopAndHide();
             }
         gameStatus.saveCurrentScore();
         showFinalStatus();
@@ -603,28 +1209,70 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
     }
 
     /**
-     * Restarts the app.
+     * Starts a new game without recreating the activity, so that the GL resources, the loaded
+     * assets and the audio engine are kept and the new game is shown from the next frame.
+     * The game state is reset on the GL thread, between two frames, since it is read while drawing.
      */
     private void restartGame() {
         mHandler.removeCallbacksAndMessages(null);
-        Intent restart = new Intent(this, MainActivity.class);
-        // Before recreating the Main Activity, closes all the activities on top of it
-        // (so the intent will be delivered to the MainActivity, which is now on
-        // the top of the stack).
-        restart.addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP);
-        // Makes the MainActivity become the start of a new task (group of activities).
-        restart.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-        // Closes the current activity and restarts it (starts a new one).
-        finish();
-        startActivity(restart);
+        getGvrView().queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                resetGame();
+            }
+        });
+    }
+
+    /**
+     * Brings the game back to its initial state: first level, initial score and lives, new objects
+     * and player in the starting position. Then starts the level transitions again.
+     * This must be called on the GL thread.
+     */
+    private void resetGame() {
+        mLevel = new Level(FIRST_LEVEL_DURATION);
+        gameStatus = new GameStatus(INITIAL_SCORE, NUMBER_OF_LIVES, getApplicationContext());
+
+        // The meshes of the old objects which are not used by the new ones are released by streamTargets().
+        createPickableTargets();
+        for (int i = 0; i < TARGET_NUMBER; i++)
+            updateSoundPosition(mPickableTargets[i]);
+        streamedCategory = null;
+        // The gaze is resolved again on the new objects by the next frame.
+        gazedTarget = NO_TARGET;
+
+        mPlayerMovement = new PlayerMovement();
+        eyeZ = 0.0f;
+        gameOver = false;
+
+        changeLevel();
+    }
+
+    /**
+     * Places TARGET_NUMBER pickable objects on the scene, each with a random position and mesh.
+     */
+    private void createPickableTargets() {
+        // Resets the objects, which then have no timer.
+        mTargetStore.clear();
+
+        // Changes the position of each PickableTarget object in order to avoid overlapping. Only the
+        // objects placed before it are checked: the others are still at the origin after clear().
+        for (int i = 0; i < TARGET_NUMBER; i++) {
+            mPickableTargets[i].setPosition(newPosition(i));
+            updateGazeIndex(i);
+        }
+
+        // Chooses randomly the first mesh to show for each pickable object.
+        for (int i = 0; i < TARGET_NUMBER; i++) {
+            mPickableTargets[i].changeMesh(random.nextInt(TARGET_MESH_COUNT));
+        }
     }
 
     /**
-     * Changes all the targets' position and restarts their timer.
+     * Changes all the targets' position and restarts their timer. This must be called on the GL thread.
      */
     private void hideAllTargets() {
         for (int i = 0; i < TARGET_NUMBER; i++) {
-            hideTarget(mPickableTargets[i]);
+            hideTarget(i);
         }
         // Chooses a random object and changes its mesh, if necessary.
         checkMesh(mPickableTargets[random.nextInt(TARGET_NUMBER)]);
@@ -632,31 +1280,45 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
 
     /**
      * Changes the position of the {@link PickableTarget} object and updates its mesh.
+     * This must be called on the GL thread.
      *
-     * @param pickableTarget The object to update.
+     * @param index The index of the object to update in mPickableTargets.
      */
-    private void hideTarget(PickableTarget pickableTarget) {
-        Position tempPosition = newPosition();
+    private void hideTarget(int index) {
+        PickableTarget pickableTarget = mPickableTargets[index];
+        Position tempPosition = newPosition(TARGET_NUMBER);
         pickableTarget.setPosition(tempPosition);
+        updateGazeIndex(index);
 
         updateSoundPosition(pickableTarget);
 
         int newMesh = random.nextInt(TARGET_MESH_COUNT);
-        if ((mLevel.getLevelNumber() == 3) && (pickableTarget.getTimer() != null))
-            pickableTarget.getTimer().restartTimer();
-        pickableTarget.changeMesh(newMesh, mTargets.get(newMesh));
+        if ((mLevel.getLevelNumber() == 3) && pickableTarget.hasTimer())
+            pickableTarget.restartTimer();
+        pickableTarget.changeMesh(newMesh);
+    }
+
+    /**
+     * Moves an object to its current position in the gaze index.
+     *
+     * @param index The index of the object in mPickableTargets.
+     */
+    private void updateGazeIndex(int index) {
+        mGazeIndex.update(index, mTargetStore.getXCoordinate(index), mTargetStore.getYCoordinate(index),
+                mTargetStore.getZCoordinate(index));
     }
 
     /**
      * Firstly, it generates a new random position, then checks the Euclidean distance between
-     * the new position and the position of all objects on the scene.
+     * the new position and the position of the objects already placed on the scene.
      * The distance must be of at least 2.0 (empirical value) in order to avoid overlaps
      * between objects.
      * If the new position does not respect the minimum distance, a new one will be calculated.
      *
+     * @param placedCount The number of objects already placed, which are the first ones of mPickableTargets.
      * @return The new {@link Position}.
      */
-    private Position newPosition() {
+    private Position newPosition(int placedCount) {
         float distance;
 
         Position tempPosition = new Position();
@@ -664,13 +1326,12 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
 
         float[] tempCoordinates = tempPosition.getPosition(); // [x, y, z]
 
-        for (int i = 0; i < TARGET_NUMBER; i++) {
-            float[] targetPosition = mPickableTargets[i].getPositionAsArray(); // [x, y, z]
-
-            // Calculates the Euclidean distance between the new position and all the current objects.
-            distance = (float) Math.sqrt(Math.pow(tempCoordinates[0] - targetPosition[0], 2) +
-                    Math.pow(tempCoordinates[1] - targetPosition[1], 2) +
-                    Math.pow(tempCoordinates[2] - targetPosition[2], 2));
+        float[] targetPositions = mTargetStore.getPositions(); // [x, y, z] for each object
+        for (int i = 0; i < placedCount; i++) {
+            // Calculates the Euclidean distance between the new position and all the placed objects.
+            distance = (float) Math.sqrt(Math.pow(tempCoordinates[0] - targetPositions[i * 3], 2) +
+                    Math.pow(tempCoordinates[1] - targetPositions[i * 3 + 1], 2) +
+                    Math.pow(tempCoordinates[2] - targetPositions[i * 3 + 2], 2));
 
             // If the distance is <2.0, calculates a new random position and restarts the loop.
             if (distance < 2.0) {
@@ -708,7 +1369,7 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
         } while (!checkCategory(mTargets.get(newMesh).getCategory()));
 
         // Updates the pickableTarget object with the new mesh.
-        pickableTarget.changeMesh(newMesh, mTargets.get(newMesh));
+        pickableTarget.changeMesh(newMesh);
     }
 
     /**
@@ -724,18 +1385,12 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
     }
 
     /**
-     * Adds 3D objects to the scene.
-     *
-     * @param objectPositionParam The position attribute in the shader.
-     * @param objectUvParam       The UV attribute in the shader.
-     * @throws IOException if unable to initialize objects.
+     * Creates the room and the 3D objects that can appear on the scene.
      */
-    private void addTargets(int objectPositionParam, int objectUvParam) throws IOException {
-        mTargets = new ArrayList<>();
-        targetObjectMeshes = new ArrayList<>();
-        targetObjectNotSelectedTextures = new ArrayList<>();
-        targetObjectSelectedTextures = new ArrayList<>();
+    private void createTargets() {
+        mRoom = new Target(ObjName.ROOM, getString(R.string.room_obj), getString(R.string.room_png), getString(R.string.room_png));
 
+        mTargets = new ArrayList<>();
         mTargets.add(new Target(ObjName.PENGUIN, getString(R.string.penguin_obj), getString(R.string.dark_penguin), getString(R.string.light_penguin)));
         mTargets.add(new Target(ObjName.CAT, getString(R.string.cat_obj), getString(R.string.dark_cat), getString(R.string.light_cat)));
         mTargets.add(new Target(ObjName.PIKACHU, getString(R.string.pikachu_obj), getString(R.string.dark_pikachu), getString(R.string.light_pikachu)));
@@ -744,23 +1399,61 @@ public class MainActivity extends GvrActivity implements GvrView.StereoRenderer
         mTargets.add(new Target(ObjName.MOUSE, getString(R.string.mouse_obj), getString(R.string.dark_mouse), getString(R.string.light_mouse)));
         mTargets.add(new Target(ObjName.PLANE, getString(R.string.plane_obj), getString(R.string.dark_plane), getString(R.string.light_plane)));
         mTargets.add(new Target(ObjName.SUNFLOWER, getString(R.string.sun_obj), getString(R.string.dark_sun), getString(R.string.light_sun)));
+    }
 
-        for (int i = 0; i < TARGET_MESH_COUNT; i++) {
-            addObject(mTargets.get(i), objectPositionParam, objectUvParam);
+    /**
+     * Starts parsing meshes and reading textures of the room and of the objects on the scene in background.
+     * The other objects are loaded later, when they are first needed.
+     */
+    private void prefetchTargets() {
+        mTargetManager.prefetch(this, mRoom);
+        for (int i = 0; i < TARGET_NUMBER; i++) {
+            mTargetManager.prefetch(this, mTargetStore.getTarget(i));
+        }
+    }
+
+    /**
+     * Initializes a 3D object with the correct texture. This must be called on the GL thread.
+     *
+     * @param meshIndex The mesh index of the target object to initialize.
+     */
+    private void addObject(int meshIndex) {
+        Target target = mTargets.get(meshIndex);
+        TexturedMesh mesh = null;
+        Texture selectedTexture = null;
+        try {
+            mesh = mTargetManager.acquireMesh(this, target.getFilePath(), objectPositionParam, objectUvParam);
+            // The selected texture is not needed if the object is highlighted by the shader.
+            if (!TargetManager.SHADER_HIGHLIGHT)
+                selectedTexture = mTargetManager.acquireTexture(this, target.getSelectedTexturePath(), true);
+            targetObjectNotSelectedTextures[meshIndex] = mTargetManager.acquireTexture(this,
+                    target.getNotSelectedTexturePath(), true);
+            targetObjectSelectedTextures[meshIndex] = selectedTexture;
+            // The object is drawn only when the mesh is set, so it is set last.
+            targetObjectMeshes[meshIndex] = mesh;
+        } catch (IOException e) {
+            Log.e(TAG, getString(R.string.init_failed), e);
+            // Gives back what has been acquired before the failure.
+            if (mesh != null)
+                mTargetManager.release(target.getFilePath());
+            if (selectedTexture != null)
+                mTargetManager.release(target.getSelectedTexturePath());
         }
     }
 
     /**
-     * Initializes a 3D object with the correct texture, according to the given params.
+     * Gives back the mesh and the textures of a 3D object. This must be called on the GL thread.
      *
-     * @param target              The target object to initialize.
-     * @param objectPositionParam The position attribute in the shader.
-     * @param objectUvParam       The UV attribute in the shader.
-     */
-    private void addObject(Target target, int objectPositionParam, int objectUvParam) {
-        mTargetManager.applyTexture(this, target, objectPositionParam, objectUvParam);
-        targetObjectMeshes.add(mTargetManager.getTexturedMesh());
-        targetObjectNotSelectedTextures.add(mTargetManager.getNotSelectedTexture());
-        targetObjectSelectedTextures.add(mTargetManager.getSelectedTexture());
+     * @param meshIndex The mesh index of the target object to remove.
+     */
+    private void removeObject(int meshIndex) {
+        Target target = mTargets.get(meshIndex);
+        targetObjectMeshes[meshIndex] = null;
+        targetObjectSelectedTextures[meshIndex] = null;
+        targetObjectNotSelectedTextures[meshIndex] = null;
+        mTargetManager.release(target.getFilePath());
+        if (!TargetManager.SHADER_HIGHLIGHT)
+            mTargetManager.release(target.getSelectedTexturePath());
+        mTargetManager.release(target.getNotSelectedTexturePath());
     }
 }
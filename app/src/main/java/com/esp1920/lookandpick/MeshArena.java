@@ -0,0 +1,240 @@
+package com.esp1920.lookandpick;
+
+import android.opengl.GLES20;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+
+/**
+ * This class stores mesh data in GPU memory, so that it is uploaded only once instead of being
+ * copied by the driver at every draw call.
+ * <p>
+ * Vertex and index data of different meshes are sub-allocated from large shared buffer objects
+ * (blocks): each mesh only remembers which buffers it lives in and at which byte offsets.
+ * A new block is created when no block has room for a mesh; a mesh larger than a block gets a block of its own.
+ * Each block keeps the list of its free ranges, so the space of a freed mesh is reused by the next
+ * meshes which fit in it, and a block is deleted when all the meshes stored in it have been freed.
+ * All methods must be called on the GL thread.
+ * </p>
+ */
+/* package */ class MeshArena {
+    private static final String TAG = "MeshArena";
+
+    // Default sizes of a block, in bytes. They are large enough to hold all the meshes of the game.
+    private static final int VERTEX_BLOCK_SIZE = 1024 * 1024;
+    private static final int INDEX_BLOCK_SIZE = 256 * 1024;
+
+    // Offsets are kept aligned to 4 bytes, as required for float and int attributes.
+    private static final int ALIGNMENT = 4;
+
+    private final ArrayList<Block> mBlocks = new ArrayList<>();
+
+    /**
+     * Position of a mesh inside the arena.
+     */
+    static class Allocation {
+        final int vertexBuffer;
+        final int vertexOffset;
+        final int indexBuffer;
+        final int indexOffset;
+        private final Block block;
+        // Sizes of the ranges taken in the block, in bytes.
+        private final int vertexSize;
+        private final int indexSize;
+
+        private Allocation(Block block, int vertexOffset, int vertexSize, int indexOffset, int indexSize) {
+            this.block = block;
+            this.vertexBuffer = block.buffers[0];
+            this.vertexOffset = vertexOffset;
+            this.vertexSize = vertexSize;
+            this.indexBuffer = block.buffers[1];
+            this.indexOffset = indexOffset;
+            this.indexSize = indexSize;
+        }
+    }
+
+    /**
+     * The free ranges of a buffer object, sorted by offset. Adjacent ranges are merged when they are freed.
+     */
+    private static class FreeList {
+        private final ArrayList<int[]> ranges = new ArrayList<>();
+
+        FreeList(int capacity) {
+            ranges.add(new int[]{0, capacity});
+        }
+
+        /**
+         * @param size The size to take, in bytes.
+         * @return The offset of the first free range large enough, or -1 if there is none.
+         */
+        int find(int size) {
+            for (int[] range : ranges) {
+                if (range[1] >= size)
+                    return range[0];
+            }
+            return -1;
+        }
+
+        /**
+         * Takes the beginning of the first free range large enough.
+         *
+         * @param size The size to take, in bytes.
+         * @return The offset of the taken space, or -1 if there is no room.
+         */
+        int take(int size) {
+            for (int i = 0; i < ranges.size(); i++) {
+                int[] range = ranges.get(i);
+                if (range[1] < size)
+                    continue;
+                int offset = range[0];
+                range[0] += size;
+                range[1] -= size;
+                if (range[1] == 0)
+                    ranges.remove(i);
+                return offset;
+            }
+            return -1;
+        }
+
+        /**
+         * Gives back a range taken by {@link #take(int)}.
+         *
+         * @param offset The offset of the range.
+         * @param size   The size of the range, in bytes.
+         */
+        void give(int offset, int size) {
+            int i = 0;
+            while (i < ranges.size() && ranges.get(i)[0] < offset)
+                i++;
+            int[] previous = i > 0 ? ranges.get(i - 1) : null;
+            int[] next = i < ranges.size() ? ranges.get(i) : null;
+            boolean joinsPrevious = previous != null && previous[0] + previous[1] == offset;
+            boolean joinsNext = next != null && offset + size == next[0];
+            if (joinsPrevious && joinsNext) {
+                previous[1] += size + next[1];
+                ranges.remove(i);
+            } else if (joinsPrevious) {
+                previous[1] += size;
+            } else if (joinsNext) {
+                next[0] = offset;
+                next[1] += size;
+            } else {
+                ranges.add(i, new int[]{offset, size});
+            }
+        }
+    }
+
+    /**
+     * A pair of vertex and index buffer objects, whose free space is tracked by range.
+     */
+    private static class Block {
+        private final int[] buffers = new int[2];
+        private final FreeList vertexSpace;
+        private final FreeList indexSpace;
+        // Number of meshes stored in this block which have not been freed yet.
+        private int liveAllocations;
+
+        Block(int vertexCapacity, int indexCapacity) {
+            vertexSpace = new FreeList(vertexCapacity);
+            indexSpace = new FreeList(indexCapacity);
+
+            GLES20.glGenBuffers(2, buffers, 0);
+            // Allocates the storage without initializing it: meshes are copied in later.
+            GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+            GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexCapacity, null, GLES20.GL_STATIC_DRAW);
+            GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+            GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexCapacity, null, GLES20.GL_STATIC_DRAW);
+        }
+
+        boolean fits(int vertexSize, int indexSize) {
+            return vertexSpace.find(vertexSize) >= 0 && indexSpace.find(indexSize) >= 0;
+        }
+
+        Allocation put(Buffer vertices, int vertexBytes, Buffer indices, int indexBytes) {
+            int vertexSize = align(vertexBytes);
+            int indexSize = align(indexBytes);
+            int vertexOffset = vertexSpace.take(vertexSize);
+            int indexOffset = indexSpace.take(indexSize);
+
+            GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, buffers[0]);
+            GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, vertexOffset, vertexBytes, vertices);
+            GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+            GLES20.glBufferSubData(GLES20.GL_ELEMENT_ARRAY_BUFFER, indexOffset, indexBytes, indices);
+
+            liveAllocations++;
+            return new Allocation(this, vertexOffset, vertexSize, indexOffset, indexSize);
+        }
+
+        void remove(Allocation allocation) {
+            vertexSpace.give(allocation.vertexOffset, allocation.vertexSize);
+            indexSpace.give(allocation.indexOffset, allocation.indexSize);
+            liveAllocations--;
+        }
+
+        void delete() {
+            GLES20.glDeleteBuffers(2, buffers, 0);
+            // The deleted buffers may have been bound.
+            GlState.invalidate();
+        }
+    }
+
+    /**
+     * Copies a mesh into GPU memory.
+     *
+     * @param vertices    The vertex data, starting at the buffer's position.
+     * @param vertexBytes The size of the vertex data, in bytes.
+     * @param indices     The index data, starting at the buffer's position.
+     * @param indexBytes  The size of the index data, in bytes.
+     * @return Where the mesh has been stored.
+     */
+    public Allocation upload(Buffer vertices, int vertexBytes, Buffer indices, int indexBytes) {
+        // Binding the element array buffer would otherwise change the vertex array object of a mesh.
+        GlState.bindVertexArray(0);
+        Block block = null;
+        for (Block candidate : mBlocks) {
+            if (candidate.fits(align(vertexBytes), align(indexBytes))) {
+                block = candidate;
+                break;
+            }
+        }
+        if (block == null) {
+            block = new Block(Math.max(VERTEX_BLOCK_SIZE, align(vertexBytes)),
+                    Math.max(INDEX_BLOCK_SIZE, align(indexBytes)));
+            mBlocks.add(block);
+        }
+        Allocation allocation = block.put(vertices, vertexBytes, indices, indexBytes);
+
+        GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
+        Util.checkGlError(TAG);
+        return allocation;
+    }
+
+    /**
+     * Frees the space of a mesh, which can then be reused by the next uploads.
+     * A block which no longer stores any mesh is deleted, unless it is the only one.
+     *
+     * @param allocation Where the mesh was stored. It must not be drawn anymore.
+     */
+    public void free(Allocation allocation) {
+        Block block = allocation.block;
+        if (!mBlocks.contains(block))
+            return;
+
+        block.remove(allocation);
+        if (block.liveAllocations == 0 && mBlocks.size() > 1) {
+            block.delete();
+            mBlocks.remove(block);
+        }
+    }
+
+    /**
+     * Rounds an offset up to the next multiple of {@value #ALIGNMENT}.
+     *
+     * @param offset The offset to align, in bytes.
+     * @return The aligned offset.
+     */
+    private static int align(int offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
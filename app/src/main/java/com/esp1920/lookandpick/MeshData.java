@@ -0,0 +1,508 @@
+package com.esp1920.lookandpick;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjData;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjUtils;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class holds the CPU-side data of a mesh: an interleaved vertex buffer and an index buffer,
+ * ready to be uploaded by {@link TexturedMesh}.
+ * <p>
+ * Vertices are stored either as floats or, in quantized packed meshes, as normalized unsigned shorts:
+ * quantized positions are decoded in the vertex shader with the scale and offset of the mesh.
+ * </p>
+ * <p>
+ * Meshes are preferably loaded from the packed binary files generated at build time by the
+ * convertMeshes task, which are memory-mapped and used as they are. The .obj file is parsed only
+ * when its packed version is not available; the result is then packed in the same format and stored
+ * in the {@link AssetCache}, so that the next launches map it instead.
+ * Indices are 16-bit: meshes with more vertices than they can address are split into sub-meshes,
+ * each with its own range of vertices and indices, drawn one after the other.
+ * Loading does not need a GL context, so it can be done on any thread.
+ * </p>
+ * <p>
+ * The convertMeshes task also writes reduced levels of detail next to the packed mesh, which are
+ * loaded together with it and drawn in place of the full mesh when the object is far away.
+ * </p>
+ */
+/* package */ class MeshData {
+    private static final String TAG = "MeshData";
+    private final static String OBJ_EXTENSION = ".obj";
+    private final static String MESH_EXTENSION = ".mesh";
+    private final static String LOD_INFIX = ".lod";
+    private final static String INVALID_MESH = "Invalid packed mesh: ";
+    private final static String MISSING_MESH = "Packed mesh not found, parsing ";
+    private final static String CACHE_VARIANT = "mesh";
+    private final static String INVALID_CACHE = "Invalid cached mesh: ";
+    private final static String SPLIT_MESH = "Mesh too large for 16-bit indices, sub-meshes: ";
+
+    // Layout of a packed mesh file. Must be kept aligned with MeshConverter in buildSrc.
+    private static final int MESH_MAGIC = 0x4D50414C; // "LAPM" read as a little-endian int.
+    private static final int MESH_VERSION = 3;
+    private static final int MESH_HEADER_SIZE = 7 * 4 + 6 * 4;
+    private static final int SUB_MESH_SIZE = 2 * 4;
+    private static final int VERTEX_FORMAT_FLOAT = 0;
+    private static final int VERTEX_FORMAT_QUANTIZED = 1;
+
+    // The number of vertices that 16-bit indices can address.
+    private static final int MAX_SUB_MESH_VERTICES = 0x10000;
+
+    // Each vertex stores its position (x, y, z) followed by its UV coordinates (u, v).
+    static final int POSITION_SIZE = 3;
+    static final int UV_SIZE = 2;
+    static final int FLOATS_PER_VERTEX = POSITION_SIZE + UV_SIZE;
+    static final int FLOAT_VERTEX_STRIDE = FLOATS_PER_VERTEX * 4;
+    // Quantized vertices store x, y, z, a padding which keeps u, v aligned, then u, v, as shorts.
+    static final int QUANTIZED_UV_OFFSET = (POSITION_SIZE + 1) * 2;
+    static final int QUANTIZED_VERTEX_STRIDE = QUANTIZED_UV_OFFSET + UV_SIZE * 2;
+    static final int SHORT_INDEX_SIZE = 2;
+
+    // The largest value of a normalized unsigned short, which stands for 1.
+    private static final float QUANTIZED_ONE = 0xFFFF;
+
+    private ByteBuffer vertices;
+    private boolean quantized;
+    // A position p read from the vertices is at p * positionScale + positionOffset in model space.
+    private final float[] positionScale = {1, 1, 1};
+    private final float[] positionOffset = {0, 0, 0};
+    private ShortBuffer indices;
+    // Number of vertices and indices of each sub-mesh, stored one after the other.
+    private int[] subMeshVertexCounts;
+    private int[] subMeshIndexCounts;
+    // The reduced levels of detail, from the most detailed one. Empty for the levels themselves.
+    private final ArrayList<MeshData> lods = new ArrayList<>();
+    // The distance of the farthest vertex from the origin of the mesh.
+    private float radius;
+
+    /**
+     * Constructor. It is private: use {@link #load(Context, String)}.
+     */
+    private MeshData() {
+    }
+
+    /**
+     * Loads the data of a mesh.
+     *
+     * @param context     The context for loading the mesh files.
+     * @param objFilePath The path to the .obj file.
+     * @return The loaded mesh data.
+     * @throws IOException if unable to find file path.
+     */
+    public static MeshData load(Context context, String objFilePath) throws IOException {
+        MeshData data = new MeshData();
+        String meshFilePath = objFilePath.substring(0, objFilePath.length() - OBJ_EXTENSION.length())
+                + MESH_EXTENSION;
+        try {
+            data.readPackedMesh(context, meshFilePath);
+            data.readLods(context, objFilePath.substring(0, objFilePath.length() - OBJ_EXTENSION.length()));
+        } catch (FileNotFoundException e) {
+            AssetCache cache = AssetCache.getInstance(context);
+            ByteBuffer cached = cache.read(objFilePath, CACHE_VARIANT);
+            if (cached != null) {
+                try {
+                    data.readPackedMesh(cached, objFilePath);
+                } catch (IOException | RuntimeException error) {
+                    // Thrown for truncated or corrupt entries, which are deleted and written again.
+                    Log.w(TAG, INVALID_CACHE + objFilePath, error);
+                    cache.delete(objFilePath, CACHE_VARIANT);
+                    data = new MeshData();
+                    cached = null;
+                }
+            }
+            if (cached == null) {
+                Log.w(TAG, MISSING_MESH + objFilePath);
+                data.readObjMesh(context, objFilePath);
+                cache.write(objFilePath, CACHE_VARIANT, data.pack());
+            }
+        }
+        data.computeRadius();
+        return data;
+    }
+
+    /**
+     * Loads the reduced levels of detail written by the convertMeshes task, until one is missing.
+     *
+     * @param context  The context for loading the mesh files.
+     * @param basePath The path to the .obj file, without its extension.
+     * @throws IOException if a level is not a valid packed mesh.
+     */
+    private void readLods(Context context, String basePath) throws IOException {
+        while (true) {
+            MeshData lod = new MeshData();
+            try {
+                lod.readPackedMesh(context, basePath + LOD_INFIX + (lods.size() + 1) + MESH_EXTENSION);
+            } catch (FileNotFoundException e) {
+                return;
+            }
+            lods.add(lod);
+        }
+    }
+
+    /**
+     * @return The number of levels of detail, including the full mesh.
+     */
+    public int getLevelCount() {
+        return lods.size() + 1;
+    }
+
+    /**
+     * @param level The level of detail, from 0 (the full mesh) to {@link #getLevelCount()} - 1.
+     * @return The data of the level.
+     */
+    public MeshData getLevel(int level) {
+        return level == 0 ? this : lods.get(level - 1);
+    }
+
+    /**
+     * @return The radius of the sphere, centered in the origin of the mesh, which contains all its vertices.
+     */
+    public float getRadius() {
+        return radius;
+    }
+
+    /**
+     * @return The size of the vertex and index data of all the levels of detail, in bytes.
+     */
+    public long getByteSize() {
+        long size = 0;
+        for (int i = 0; i < getLevelCount(); i++) {
+            MeshData level = getLevel(i);
+            size += level.vertices.limit() + level.indices.limit() * SHORT_INDEX_SIZE;
+        }
+        return size;
+    }
+
+    /**
+     * @return The interleaved vertex data.
+     */
+    public ByteBuffer getVertices() {
+        return vertices;
+    }
+
+    /**
+     * @return True if the vertices are stored as normalized unsigned shorts, false if they are floats.
+     */
+    public boolean isQuantized() {
+        return quantized;
+    }
+
+    /**
+     * @return The number of bytes between consecutive vertices.
+     */
+    public int getVertexStride() {
+        return quantized ? QUANTIZED_VERTEX_STRIDE : FLOAT_VERTEX_STRIDE;
+    }
+
+    /**
+     * @return The scale of the x, y, z coordinates read from the vertices.
+     */
+    public float[] getPositionScale() {
+        return positionScale;
+    }
+
+    /**
+     * @return The offset added to the x, y, z coordinates read from the vertices, after the scale.
+     */
+    public float[] getPositionOffset() {
+        return positionOffset;
+    }
+
+    /**
+     * @return The index data. The indices of each sub-mesh start from 0 at its first vertex.
+     */
+    public ShortBuffer getIndices() {
+        return indices;
+    }
+
+    /**
+     * @return The number of sub-meshes, which is 1 unless the mesh is too large for 16-bit indices.
+     */
+    public int getSubMeshCount() {
+        return subMeshVertexCounts.length;
+    }
+
+    /**
+     * @param subMesh The index of a sub-mesh.
+     * @return The number of vertices of the sub-mesh.
+     */
+    public int getSubMeshVertexCount(int subMesh) {
+        return subMeshVertexCounts[subMesh];
+    }
+
+    /**
+     * @param subMesh The index of a sub-mesh.
+     * @return The number of indices of the sub-mesh.
+     */
+    public int getSubMeshIndexCount(int subMesh) {
+        return subMeshIndexCounts[subMesh];
+    }
+
+    /**
+     * Maps a packed mesh file in memory and uses its vertex and index buffers directly.
+     *
+     * @param context      The context for loading the packed mesh file.
+     * @param meshFilePath The path to the packed mesh file.
+     * @throws IOException if the file is missing or it is not a valid packed mesh.
+     */
+    private void readPackedMesh(Context context, String meshFilePath) throws IOException {
+        MappedByteBuffer mesh;
+        // The file is stored uncompressed in the APK (see aaptOptions), so it can be mapped.
+        try (AssetFileDescriptor descriptor = context.getAssets().openFd(meshFilePath);
+             FileInputStream meshInputStream = descriptor.createInputStream()) {
+            mesh = meshInputStream.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    descriptor.getStartOffset(), descriptor.getLength());
+        }
+        readPackedMesh(mesh, meshFilePath);
+    }
+
+    /**
+     * Uses the vertex and index buffers of a packed mesh directly.
+     *
+     * @param mesh         The content of the packed mesh, from its beginning.
+     * @param meshFilePath The path the mesh comes from, for error messages.
+     * @throws IOException if the content is not a valid packed mesh.
+     */
+    private void readPackedMesh(ByteBuffer mesh, String meshFilePath) throws IOException {
+        mesh.order(ByteOrder.LITTLE_ENDIAN);
+
+        if (mesh.getInt() != MESH_MAGIC || mesh.getInt() != MESH_VERSION) {
+            throw new IOException(INVALID_MESH + meshFilePath);
+        }
+        int vertexCount = mesh.getInt();
+        int indexCount = mesh.getInt();
+        int indexSize = mesh.getInt();
+        int subMeshCount = mesh.getInt();
+        int vertexFormat = mesh.getInt();
+        quantized = vertexFormat == VERTEX_FORMAT_QUANTIZED;
+        for (int i = 0; i < POSITION_SIZE; i++) {
+            positionScale[i] = mesh.getFloat();
+        }
+        for (int i = 0; i < POSITION_SIZE; i++) {
+            positionOffset[i] = mesh.getFloat();
+        }
+        int dataOffset = MESH_HEADER_SIZE + subMeshCount * SUB_MESH_SIZE;
+        if (indexSize != SHORT_INDEX_SIZE || subMeshCount < 1
+                || (vertexFormat != VERTEX_FORMAT_FLOAT && vertexFormat != VERTEX_FORMAT_QUANTIZED)
+                || mesh.capacity() < dataOffset + vertexCount * getVertexStride() + indexCount * indexSize) {
+            throw new IOException(INVALID_MESH + meshFilePath);
+        }
+
+        subMeshVertexCounts = new int[subMeshCount];
+        subMeshIndexCounts = new int[subMeshCount];
+        for (int i = 0; i < subMeshCount; i++) {
+            subMeshVertexCounts[i] = mesh.getInt();
+            subMeshIndexCounts[i] = mesh.getInt();
+        }
+
+        // Views over the mapped file: no data is copied.
+        mesh.position(dataOffset);
+        vertices = slice(mesh, vertexCount * getVertexStride());
+        indices = slice(mesh, indexCount * indexSize).asShortBuffer();
+    }
+
+    /**
+     * Creates the mesh parsing the .obj file, in case its packed version is not available.
+     *
+     * @param context     The context for loading the .obj file.
+     * @param objFilePath The path to the .obj file.
+     * @throws IOException if unable to find file path.
+     */
+    private void readObjMesh(Context context, String objFilePath) throws IOException {
+        // Gets renderable obj from .obj file.
+        InputStream objInputStream = context.getAssets().open(objFilePath);
+        Obj obj = ObjUtils.convertToRenderable(ObjReader.read(objInputStream));
+        objInputStream.close();
+
+        // Gets vertex indices of the faces of the obj (3 vertices for each face: triangles).
+        IntBuffer intIndices = ObjData.getFaceVertexIndices(obj, 3);
+
+        FloatBuffer positions = ObjData.getVertices(obj);
+        FloatBuffer uv = ObjData.getTexCoords(obj, 2);
+
+        int[] objIndices = new int[intIndices.limit()];
+        intIndices.get(objIndices);
+        // Vertices of the obj in the order they are stored, with the indices of the sub-meshes.
+        int[] order = split(objIndices, obj.getNumVertices());
+
+        // Interleaves positions and UV coordinates, as in the packed format with float vertices.
+        vertices = ByteBuffer.allocateDirect(order.length * FLOAT_VERTEX_STRIDE)
+                .order(ByteOrder.nativeOrder());
+        FloatBuffer floatVertices = vertices.asFloatBuffer();
+        for (int i : order) {
+            floatVertices.put(positions.get(i * POSITION_SIZE));
+            floatVertices.put(positions.get(i * POSITION_SIZE + 1));
+            floatVertices.put(positions.get(i * POSITION_SIZE + 2));
+            floatVertices.put(uv.get(i * UV_SIZE));
+            floatVertices.put(uv.get(i * UV_SIZE + 1));
+        }
+
+        // Converts int indices to shorts (GLES doesn't support int indices).
+        indices = ByteBuffer.allocateDirect(SHORT_INDEX_SIZE * objIndices.length)
+                .order(ByteOrder.nativeOrder())
+                .asShortBuffer();
+        for (int index : objIndices) {
+            indices.put((short) index);
+        }
+
+        // Makes buffer ready for reading the data it contains, sets the position to zero.
+        indices.rewind();
+    }
+
+    /**
+     * Writes the mesh in the packed format, with float vertices.
+     *
+     * @return The packed mesh, ready to be read by {@link #readPackedMesh(ByteBuffer, String)}.
+     */
+    private ByteBuffer pack() {
+        int subMeshCount = getSubMeshCount();
+        ByteBuffer packed = ByteBuffer.allocate(MESH_HEADER_SIZE + subMeshCount * SUB_MESH_SIZE
+                + vertices.capacity() + indices.capacity() * SHORT_INDEX_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        packed.putInt(MESH_MAGIC);
+        packed.putInt(MESH_VERSION);
+        packed.putInt(vertices.capacity() / FLOAT_VERTEX_STRIDE);
+        packed.putInt(indices.capacity());
+        packed.putInt(SHORT_INDEX_SIZE);
+        packed.putInt(subMeshCount);
+        packed.putInt(VERTEX_FORMAT_FLOAT);
+        for (float scale : positionScale) {
+            packed.putFloat(scale);
+        }
+        for (float offset : positionOffset) {
+            packed.putFloat(offset);
+        }
+        for (int i = 0; i < subMeshCount; i++) {
+            packed.putInt(subMeshVertexCounts[i]);
+            packed.putInt(subMeshIndexCounts[i]);
+        }
+        for (int i = 0; i < vertices.capacity(); i += 4) {
+            packed.putFloat(vertices.getFloat(i));
+        }
+        for (int i = 0; i < indices.capacity(); i++) {
+            packed.putShort(indices.get(i));
+        }
+        packed.flip();
+        return packed;
+    }
+
+    /**
+     * Splits a triangle mesh into sub-meshes of at most {@value #MAX_SUB_MESH_VERTICES} vertices, as the
+     * convertMeshes task does for packed meshes. Triangles keep their order and go to the current
+     * sub-mesh until their vertices do not fit; vertices shared with the previous sub-mesh are duplicated.
+     * The sub-mesh sizes are stored in this object.
+     *
+     * @param triangles   The indices of the triangles, replaced by the indices local to their sub-mesh.
+     * @param vertexCount The number of vertices of the mesh.
+     * @return The vertex of the mesh stored at each position of the new vertex buffer.
+     */
+    private int[] split(int[] triangles, int vertexCount) {
+        if (vertexCount <= MAX_SUB_MESH_VERTICES) {
+            subMeshVertexCounts = new int[]{vertexCount};
+            subMeshIndexCounts = new int[]{triangles.length};
+            int[] identity = new int[vertexCount];
+            for (int i = 0; i < vertexCount; i++) {
+                identity[i] = i;
+            }
+            return identity;
+        }
+
+        // Each triangle adds at most 3 vertices.
+        int[] order = new int[Math.max(vertexCount, triangles.length)];
+        int[] local = new int[vertexCount];
+        Arrays.fill(local, -1);
+        ArrayList<Integer> vertexCounts = new ArrayList<>();
+        ArrayList<Integer> indexCounts = new ArrayList<>();
+        int stored = 0;
+        int subMeshStart = 0;
+        int subMeshFirstIndex = 0;
+        for (int t = 0; t < triangles.length; t += 3) {
+            int missing = 0;
+            for (int k = 0; k < 3; k++) {
+                if (local[triangles[t + k]] < 0)
+                    missing++;
+            }
+            if (stored - subMeshStart + missing > MAX_SUB_MESH_VERTICES) {
+                vertexCounts.add(stored - subMeshStart);
+                indexCounts.add(t - subMeshFirstIndex);
+                for (int i = subMeshStart; i < stored; i++) {
+                    local[order[i]] = -1;
+                }
+                subMeshStart = stored;
+                subMeshFirstIndex = t;
+            }
+            for (int k = 0; k < 3; k++) {
+                int vertex = triangles[t + k];
+                if (local[vertex] < 0) {
+                    local[vertex] = stored - subMeshStart;
+                    order[stored++] = vertex;
+                }
+                triangles[t + k] = local[vertex];
+            }
+        }
+        vertexCounts.add(stored - subMeshStart);
+        indexCounts.add(triangles.length - subMeshFirstIndex);
+
+        subMeshVertexCounts = new int[vertexCounts.size()];
+        subMeshIndexCounts = new int[indexCounts.size()];
+        for (int i = 0; i < vertexCounts.size(); i++) {
+            subMeshVertexCounts[i] = vertexCounts.get(i);
+            subMeshIndexCounts[i] = indexCounts.get(i);
+        }
+        Log.i(TAG, SPLIT_MESH + subMeshVertexCounts.length);
+        return Arrays.copyOf(order, stored);
+    }
+
+    /**
+     * Computes the radius of the mesh from the positions of its vertices.
+     */
+    private void computeRadius() {
+        float squaredRadius = 0;
+        int stride = getVertexStride();
+        float[] position = new float[POSITION_SIZE];
+        for (int vertex = 0; vertex < vertices.limit(); vertex += stride) {
+            for (int i = 0; i < POSITION_SIZE; i++) {
+                float value = quantized
+                        ? (vertices.getShort(vertex + i * 2) & 0xFFFF) / QUANTIZED_ONE
+                        : vertices.getFloat(vertex + i * 4);
+                position[i] = value * positionScale[i] + positionOffset[i];
+            }
+            squaredRadius = Math.max(squaredRadius,
+                    position[0] * position[0] + position[1] * position[1] + position[2] * position[2]);
+        }
+        radius = (float) Math.sqrt(squaredRadius);
+    }
+
+    /**
+     * Returns a little-endian view of the next {@code length} bytes of a buffer and moves its
+     * position past them.
+     *
+     * @param buffer The buffer to read.
+     * @param length The number of bytes of the view.
+     * @return The new buffer, sharing its content with {@code buffer}.
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer view = buffer.slice();
+        view.limit(length);
+        buffer.position(buffer.position() + length);
+        return view.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -2,9 +2,13 @@ package com.esp1920.lookandpick;
 
 /**
  * This class represents a visible object that appears on the screen.
- * Every object is represented using its {@link Position} and an index, which indicates the associated mesh.
- * Also, each object has a {@link DisappearanceTimer}, which is a timer used to make the object
- * disappear from the scene. Notice that the timer is initialized only if the current game's level is number 3.
+ * Every object is represented using its position and an index, which indicates the associated mesh.
+ * Also, each object can have a disappearance timer, which makes the object disappear from the scene.
+ * Notice that the timer is initialized only if the current game's level is number 3.
+ * <p>
+ * The state of the object is kept in a {@link TargetStore}, of which this class is only a view: it
+ * holds the store and the index of the object in it.
+ * </p>
  */
 
 public class PickableTarget {
@@ -12,17 +16,18 @@ public class PickableTarget {
     // Used to convert seconds to millis.
     private final static int TO_MILLIS = 1000;
 
-    private Position mPosition;
-    private int mMeshIndex;
-    private DisappearanceTimer mTimer;
-    private Target mTarget;
+    private final TargetStore mStore;
+    private final int mIndex;
 
     /**
-     * Constructor. It does not initialize the index and the timer.
+     * Constructor.
+     *
+     * @param store The store which holds the state of the object.
+     * @param index The index of the object in the store.
      */
-    PickableTarget() {
-        mPosition = new Position();
-        mPosition.generateRandomPosition();
+    PickableTarget(TargetStore store, int index) {
+        mStore = store;
+        mIndex = index;
     }
 
     /**
@@ -31,88 +36,80 @@ public class PickableTarget {
      * is created only when necessary.
      */
     public void initializeTimer(int duration) {
-        mTimer = new DisappearanceTimer(duration * TO_MILLIS);
+        mStore.initializeTimer(mIndex, duration * TO_MILLIS);
     }
 
     /**
-     * Changes both the mesh index and the target associated with this object.
-     *
-     * @param newMeshIndex The index associated to the new mesh.
-     * @param newTarget    The new {@link Target} object with its mesh index.
+     * @return True if this object has a timer.
      */
-    public void changeMesh(int newMeshIndex, Target newTarget) {
-        setMeshIndex(newMeshIndex);
-        setTarget(newTarget);
+    public boolean hasTimer() {
+        return mStore.hasTimer(mIndex);
     }
 
     /**
-     * Checks if an object must be hidden.
+     * Shows this object again and restarts its countdown.
      */
-    public boolean isHidden() {
-        if (mTimer != null) return mTimer.timeFinished();
-        return false;
+    public void restartTimer() {
+        mStore.restartTimer(mIndex);
     }
 
     /**
-     * @return The current {@link Position} of this object.
+     * Stops the timer and hides this object.
      */
-    public Position getPosition() {
-        return mPosition;
+    public void stopAndHide() {
+        mStore.stopAndHide(mIndex);
     }
 
     /**
-     * @return The current {@link Position} of this object as an array.
+     * Changes the mesh index, and so the target associated with this object.
+     *
+     * @param newMeshIndex The index associated to the new mesh.
      */
-    public float[] getPositionAsArray() {
-        return new float[]{mPosition.getXCoordinate(), mPosition.getYCoordinate(),
-                mPosition.getZCoordinate()};
+    public void changeMesh(int newMeshIndex) {
+        mStore.setMeshIndex(mIndex, newMeshIndex);
     }
 
     /**
-     * Sets the position of this object.
-     *
-     * @param position The position where the object will appear.
+     * @return The x coordinate of this object.
      */
-    public void setPosition(Position position) {
-        mPosition = position;
+    public float getXCoordinate() {
+        return mStore.getXCoordinate(mIndex);
     }
 
     /**
-     * @return The current value of the index.
+     * @return The y coordinate of this object.
      */
-    public int getMeshIndex() {
-        return mMeshIndex;
+    public float getYCoordinate() {
+        return mStore.getYCoordinate(mIndex);
     }
 
     /**
-     * Sets a new index, which represents the mesh associated with this object.
-     *
-     * @param meshIndex The new index.
+     * @return The z coordinate of this object.
      */
-    public void setMeshIndex(int meshIndex) {
-        mMeshIndex = meshIndex;
+    public float getZCoordinate() {
+        return mStore.getZCoordinate(mIndex);
     }
 
     /**
-     * @return The {@link Target} object associated to this.
+     * Sets the position of this object.
+     *
+     * @param position The position where the object will appear.
      */
-    public Target getTarget() {
-        return mTarget;
+    public void setPosition(Position position) {
+        mStore.setPosition(mIndex, position.getXCoordinate(), position.getYCoordinate(), position.getZCoordinate());
     }
 
     /**
-     * Associates a new {@link Target} to the current object.
-     *
-     * @param target The {@link Target} object to link.
+     * @return The current value of the index.
      */
-    public void setTarget(Target target) {
-        mTarget = target;
+    public int getMeshIndex() {
+        return mStore.getMeshIndex(mIndex);
     }
 
     /**
-     * @return The {@link DisappearanceTimer} object associated to this PickableTarget.
+     * @return The {@link Target} object associated to this.
      */
-    public DisappearanceTimer getTimer() {
-        return mTimer;
+    public Target getTarget() {
+        return mStore.getTarget(mIndex);
     }
 }
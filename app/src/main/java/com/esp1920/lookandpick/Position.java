@@ -21,6 +21,8 @@ public class Position {
 
     private float[] mPosition;
     private float[] mModel;
+    // True when the position has changed since the model matrix was last built.
+    private boolean mModelDirty;
 
     private Random random;
 
@@ -30,6 +32,7 @@ public class Position {
     Position() {
         mPosition = new float[]{0, 0, -MIN_TARGET_DISTANCE};
         mModel = new float[16];
+        mModelDirty = true;
         random = new Random();
     }
 
@@ -43,11 +46,12 @@ public class Position {
     Position(float x, float y, float z) {
         mPosition = new float[]{x, y, z};
         mModel = new float[16];
+        mModelDirty = true;
         random = new Random();
     }
 
     /**
-     * @return The position of this object.
+     * @return The position of this object. It must not be modified: use {@link #setPosition(float, float, float)}.
      */
     public float[] getPosition() {
         return mPosition;
@@ -64,17 +68,20 @@ public class Position {
         mPosition[0] = x;
         mPosition[1] = y;
         mPosition[2] = z;
+        mModelDirty = true;
     }
 
     /**
      * Gets the model matrix, used to place an object in the scene.
      * In fact, an object's model is defined such that it is centered in (0,0,0), but it can be moved
      * to position (x, y, z) by drawing it using a model matrix which translates everything of (x, y, z).
+     * The matrix is only built again after the position changes, so it can be read every frame.
      *
-     * @return The model matrix of a {@link Target}.
+     * @return The model matrix of a {@link Target}. It must not be modified.
      */
     public float[] getModel() {
-        updateModel();
+        if (mModelDirty)
+            updateModel();
         return mModel;
     }
 
@@ -84,6 +91,7 @@ public class Position {
     private void updateModel() {
         Matrix.setIdentityM(mModel, 0);
         Matrix.translateM(mModel, 0, mPosition[0], mPosition[1], mPosition[2]);
+        mModelDirty = false;
     }
 
     /**
@@ -0,0 +1,115 @@
+package com.esp1920.lookandpick;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * This class collects the draws of a frame, so that they can be submitted in a better order than the
+ * one they were found in. The same queue is submitted to both eyes, each with its own view projection
+ * matrix.
+ * <p>
+ * Draws are sorted by program, then by texture, then by mesh and level of detail, so that consecutive
+ * draws share as much GL state as possible (see {@link GlState}) and can be batched into instanced
+ * draws (see {@link Draw#canBatch(Draw)}); draws with the same state are sorted front to back,
+ * so that the nearest objects fill the depth buffer first and the fragments hidden by them are
+ * rejected before shading.
+ * Draws are pooled and reused from frame to frame, so that queueing them does not allocate memory.
+ * </p>
+ */
+/* package */ class RenderQueue {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private static final Comparator<Draw> ORDER = new Comparator<Draw>() {
+        @Override
+        public int compare(Draw a, Draw b) {
+            if (a.program != b.program)
+                return a.program < b.program ? -1 : 1;
+            if (a.texture.getGlName() != b.texture.getGlName())
+                return a.texture.getGlName() < b.texture.getGlName() ? -1 : 1;
+            if (a.meshKey != b.meshKey)
+                return a.meshKey < b.meshKey ? -1 : 1;
+            if (a.level != b.level)
+                return a.level < b.level ? -1 : 1;
+            return Float.compare(a.depth, b.depth);
+        }
+    };
+
+    private Draw[] mDraws = new Draw[0];
+    private int mCount;
+
+    /**
+     * A textured mesh to draw, with the values of its uniforms.
+     */
+    static class Draw {
+        int program;
+        Texture texture;
+        TexturedMesh mesh;
+        // Identifies the mesh, to group the draws which use it.
+        int meshKey;
+        int level;
+        // Distance of the object from the nearest eye, along the view direction.
+        float depth;
+        float[] tint;
+        // The translation of the model matrix of the object.
+        final float[] translation = new float[3];
+
+        /**
+         * @param other Another draw.
+         * @return True if the draws only differ by their uniforms, so that they can be instances of
+         * the same instanced draw.
+         */
+        boolean canBatch(Draw other) {
+            return program == other.program && texture == other.texture && meshKey == other.meshKey
+                    && level == other.level;
+        }
+    }
+
+    /**
+     * Adds a draw to the queue.
+     *
+     * @return The draw, whose fields must all be set by the caller.
+     */
+    public Draw add() {
+        if (mCount == mDraws.length) {
+            mDraws = Arrays.copyOf(mDraws, Math.max(INITIAL_CAPACITY, mDraws.length * 2));
+            for (int i = mCount; i < mDraws.length; i++) {
+                mDraws[i] = new Draw();
+            }
+        }
+        return mDraws[mCount++];
+    }
+
+    /**
+     * Sorts the draws in the order they should be submitted.
+     */
+    public void sort() {
+        Arrays.sort(mDraws, 0, mCount, ORDER);
+    }
+
+    /**
+     * @return The number of draws in the queue.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * @param index The position of the draw in the queue.
+     * @return The draw.
+     */
+    public Draw get(int index) {
+        return mDraws[index];
+    }
+
+    /**
+     * Empties the queue. The draws are kept to be reused.
+     */
+    public void clear() {
+        for (int i = 0; i < mCount; i++) {
+            // Does not keep deleted meshes and textures alive.
+            mDraws[i].texture = null;
+            mDraws[i].mesh = null;
+        }
+        mCount = 0;
+    }
+}
@@ -0,0 +1,268 @@
+package com.esp1920.lookandpick;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records where the time goes while the game starts, from the creation of the activity
+ * to the first frame in which all the objects on the scene are drawn.
+ * <p>
+ * Each phase of the startup, such as the compilation of the shaders, and each stage of the loading of
+ * an asset (parsing, decoding, upload) is recorded with its start time and duration, measured with
+ * the monotonic clock of {@link System#nanoTime()}; assets are recorded with their size in bytes.
+ * When the startup is over, a report is written to logcat and appended, as one line of JSON per launch,
+ * to {@value #REPORT_FILE} in the app's files directory, so that launches of different builds can be compared.
+ * The report is written by a background thread, so that it does not slow down the frames which follow.
+ * Nothing is recorded after the report, or before {@link #start()}. The methods can be called on any thread.
+ * </p>
+ */
+/* package */ class StartupProfiler {
+    private static final String TAG = "StartupProfiler";
+    // Stages of the loading of an asset.
+    final static String PARSE_STAGE = "parse";
+    final static String DECODE_STAGE = "decode";
+    final static String UPLOAD_STAGE = "upload";
+    private final static String REPORT_FILE = "startup.jsonl";
+    private final static String TOTAL_PHASE = "total";
+    private final static String PHASE_LINE = "%-24s at %8.1f ms, took %8.1f ms";
+    private final static String ASSET_LINE = "%-8s %-40s at %8.1f ms, took %8.1f ms, %9d bytes";
+    private final static String TOTAL_LINE = "Startup took %.1f ms";
+    private final static String REPORT_FAILED = "Unable to write the startup report";
+
+    // The report file is started again when it grows over this size, in bytes.
+    private static final long MAX_REPORT_FILE_SIZE = 256 * 1024;
+    private static final double NANOS_PER_MILLI = 1e6;
+    // The thread which writes the reports is stopped after this time, in seconds.
+    private static final long KEEP_ALIVE_TIME = 5;
+
+    private static StartupProfiler instance;
+
+    private long mStartTime;
+    private boolean mRecording;
+    private final ArrayList<Record> mPhases = new ArrayList<>();
+    private final ArrayList<Record> mAssets = new ArrayList<>();
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * A phase of the startup, or a stage of the loading of an asset.
+     */
+    private static class Record {
+        final String name;
+        final String asset;
+        final long start;
+        final long end;
+        final long bytes;
+
+        Record(String name, String asset, long start, long end, long bytes) {
+            this.name = name;
+            this.asset = asset;
+            this.start = start;
+            this.end = end;
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Constructor. It is private due to Singleton.
+     */
+    private StartupProfiler() {
+        mExecutor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, TAG);
+                // Writing the report must not slow down the rendering and UI threads.
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return The unique instance of the profiler.
+     */
+    synchronized public static StartupProfiler getInstance() {
+        if (instance == null)
+            instance = new StartupProfiler();
+        return instance;
+    }
+
+    /**
+     * @return The current time of the monotonic clock used by the profiler, in nanoseconds.
+     */
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Starts recording a new startup, discarding anything recorded before.
+     * Times in the report are relative to this call.
+     */
+    synchronized public void start() {
+        mStartTime = now();
+        mPhases.clear();
+        mAssets.clear();
+        mRecording = true;
+    }
+
+    /**
+     * Records a phase of the startup which ends now.
+     *
+     * @param phase     The name of the phase.
+     * @param startTime The time the phase started, from {@link #now()}.
+     */
+    synchronized public void recordPhase(String phase, long startTime) {
+        if (mRecording)
+            mPhases.add(new Record(phase, null, startTime, now(), 0));
+    }
+
+    /**
+     * Records a stage of the loading of an asset which ends now.
+     *
+     * @param stage     The name of the stage, such as {@link #PARSE_STAGE}.
+     * @param assetPath The path of the asset.
+     * @param startTime The time the stage started, from {@link #now()}.
+     * @param bytes     The size of the data produced by the stage.
+     */
+    synchronized public void recordAsset(String stage, String assetPath, long startTime, long bytes) {
+        if (mRecording)
+            mAssets.add(new Record(stage, assetPath, startTime, now(), bytes));
+    }
+
+    /**
+     * Ends the startup and stops recording. Only a copy of the records is taken on the calling thread:
+     * the report is written to logcat and to the report file in background.
+     * It does nothing if the startup has already been reported.
+     *
+     * @param context The current application context.
+     */
+    public void finish(Context context) {
+        final long startTime;
+        final List<Record> phases;
+        final List<Record> assets;
+        synchronized (this) {
+            if (!mRecording)
+                return;
+            mRecording = false;
+            mPhases.add(new Record(TOTAL_PHASE, null, mStartTime, now(), 0));
+            startTime = mStartTime;
+            phases = new ArrayList<>(mPhases);
+            assets = new ArrayList<>(mAssets);
+        }
+
+        final Context applicationContext = context.getApplicationContext();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                log(startTime, phases, assets);
+                try {
+                    write(new File(applicationContext.getFilesDir(), REPORT_FILE),
+                            toJson(startTime, phases, assets).toString());
+                } catch (JSONException | IOException e) {
+                    Log.w(TAG, REPORT_FAILED, e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Appends a report to the report file, which is started again if it is too large.
+     *
+     * @param file   The report file.
+     * @param report The report, on a single line.
+     * @throws IOException if the file can not be written.
+     */
+    private static void write(File file, String report) throws IOException {
+        if (file.length() > MAX_REPORT_FILE_SIZE && !file.delete())
+            Log.w(TAG, REPORT_FAILED);
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file, true), Charset.forName("UTF-8"))) {
+            writer.write(report);
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * Writes the records to logcat, one per line.
+     *
+     * @param startTime The time the startup started.
+     * @param phases    The phases of the startup, ending with the total.
+     * @param assets    The stages of the loading of the assets.
+     */
+    private static void log(long startTime, List<Record> phases, List<Record> assets) {
+        for (Record phase : phases) {
+            Log.i(TAG, String.format(Locale.US, PHASE_LINE, phase.name, toMillis(phase.start - startTime),
+                    toMillis(phase.end - phase.start)));
+        }
+        for (Record asset : assets) {
+            Log.i(TAG, String.format(Locale.US, ASSET_LINE, asset.name, asset.asset,
+                    toMillis(asset.start - startTime), toMillis(asset.end - asset.start), asset.bytes));
+        }
+        Record total = phases.get(phases.size() - 1);
+        Log.i(TAG, String.format(Locale.US, TOTAL_LINE, toMillis(total.end - total.start)));
+    }
+
+    /**
+     * @param startTime The time the startup started.
+     * @param phases    The phases of the startup.
+     * @param assets    The stages of the loading of the assets.
+     * @return The report, with the build and the device it comes from. Times are in milliseconds.
+     */
+    private static JSONObject toJson(long startTime, List<Record> phases, List<Record> assets)
+            throws JSONException {
+        JSONObject report = new JSONObject();
+        report.put("versionCode", BuildConfig.VERSION_CODE);
+        report.put("versionName", BuildConfig.VERSION_NAME);
+        report.put("device", Build.MANUFACTURER + " " + Build.MODEL);
+        report.put("sdk", Build.VERSION.SDK_INT);
+        report.put("date", System.currentTimeMillis());
+
+        JSONArray phaseArray = new JSONArray();
+        for (Record phase : phases) {
+            phaseArray.put(new JSONObject()
+                    .put("name", phase.name)
+                    .put("start", toMillis(phase.start - startTime))
+                    .put("duration", toMillis(phase.end - phase.start)));
+        }
+        report.put("phases", phaseArray);
+
+        JSONArray assetArray = new JSONArray();
+        for (Record asset : assets) {
+            assetArray.put(new JSONObject()
+                    .put("path", asset.asset)
+                    .put("stage", asset.name)
+                    .put("start", toMillis(asset.start - startTime))
+                    .put("duration", toMillis(asset.end - asset.start))
+                    .put("bytes", asset.bytes));
+        }
+        report.put("assets", assetArray);
+        return report;
+    }
+
+    /**
+     * @param nanos A time in nanoseconds.
+     * @return The time in milliseconds, rounded to a tenth.
+     */
+    private static double toMillis(long nanos) {
+        return Math.round(nanos / NANOS_PER_MILLI * 10) / 10.0;
+    }
+}
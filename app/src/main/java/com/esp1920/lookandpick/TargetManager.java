@@ -4,19 +4,88 @@ import android.content.Context;
 import android.util.Log;
 
 import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.Future;
 
 /**
  * This class provides all necessary methods to manage a {@link Target} object behaviour.
  * It is managed as a Singleton because only one manager can exist to avoid collisions on target's related operations.
+ * <p>
+ * It works as a registry of the meshes and textures used by targets, keyed by asset path: each asset
+ * is loaded once and handed out to all its users, which must give it back with {@link #release(String)}
+ * when they no longer need it. Assets that nobody uses are kept in memory, in case they are requested
+ * again, until more than {@value #MAX_UNUSED_ASSETS} of them are unused: then the least recently used
+ * ones are deleted.
+ * </p>
+ * <p>
+ * Loading an asset is split in two stages: {@link #prefetch(Context, Target)} parses the mesh and
+ * reads the textures on the {@link AssetLoader} worker threads, while
+ * {@link #acquireMesh(Context, String, int, int)} and {@link #acquireTexture(Context, String, boolean)} wait
+ * for them and upload the results on the GL thread.
+ * Since the registry outlives the activity, mesh data and compressed or cached texture data are kept
+ * after the upload: when a new GL context is created, they are uploaded again without reading them
+ * from the assets.
+ * </p>
  */
 public class TargetManager {
     private final String TAG = "TargetManager";
+    private final static String LOAD_FAILED = "Unable to load ";
+    private final static String RETAINED_ASSETS = "New GL context: %d meshes and %d textures will be uploaded from memory";
+
+    // When true, the object the user is looking at is highlighted by the shader with its usual texture,
+    // so selected textures are never loaded. Set it to false to use the selected textures instead.
+    static final boolean SHADER_HIGHLIGHT = true;
+
+    // Number of assets kept in memory while nobody uses them.
+    private static final int MAX_UNUSED_ASSETS = 8;
 
     private static TargetManager instance;
 
-    private TexturedMesh mTexturedMesh;
-    private Texture mNotSelectedTexture;
-    private Texture mSelectedTexture;
+    private AssetLoader mAssetLoader;
+    private MeshArena mMeshArena;
+    // Shared texture for the materials of the target objects, only on OpenGL ES 3.0 contexts.
+    private TextureArray mTextureArray;
+
+    // All the known assets keyed by path, from the least to the most recently used.
+    private final LinkedHashMap<String, Asset> mAssets = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * A mesh or a texture, in any stage of loading, with the number of its users.
+     */
+    private static class Asset {
+        int references;
+        boolean failed;
+
+        Future<MeshData> pendingMesh;
+        MeshData meshData;
+        TexturedMesh mesh;
+
+        Future<TextureData> pendingTexture;
+        // Kept after the upload when possible, to upload the texture again into a new GL context.
+        TextureData textureData;
+        Texture texture;
+
+        /**
+         * @return True if the asset can be handed out without waiting for the CPU stage.
+         */
+        boolean isReady() {
+            if (failed)
+                return false;
+            return mesh != null || meshData != null || texture != null || textureData != null
+                    || (pendingMesh != null && pendingMesh.isDone())
+                    || (pendingTexture != null && pendingTexture.isDone());
+        }
+
+        /**
+         * @return True if nobody uses the asset and it has not been prefetched for a future user, so that
+         * it can be deleted.
+         */
+        boolean isUnused() {
+            return references == 0 && pendingMesh == null && pendingTexture == null;
+        }
+    }
 
     /**
      * Constructor. It is private due to Singleton.
@@ -36,47 +105,291 @@ public class TargetManager {
     }
 
     /**
-     * Applies the textures to a generic target object.
+     * Must be called on the GL thread when a new GL context has been created.
+     * The meshes and textures uploaded to the previous context can not be used anymore, so they are
+     * forgotten and will be uploaded again when requested.
+     *
+     * @param capabilities  The capabilities of the new context.
+     * @param textureLayers The number of textures that can share a texture array, if supported.
+     */
+    synchronized public void onSurfaceCreated(GlCapabilities capabilities, int textureLayers) {
+        // The buffers of the previous arena went away with the previous context. They are not deleted,
+        // since their names may now belong to buffers of the new context.
+        mMeshArena = new MeshArena();
+        mTextureArray = capabilities.isEs3() ? new TextureArray(textureLayers) : null;
+        int retainedMeshes = 0;
+        int retainedTextures = 0;
+        for (Asset asset : mAssets.values()) {
+            if (asset.mesh != null && asset.meshData != null)
+                retainedMeshes++;
+            if (asset.texture != null && asset.textureData != null)
+                retainedTextures++;
+            asset.mesh = null;
+            asset.texture = null;
+            // The users of the previous context are gone.
+            asset.references = 0;
+        }
+        trimUnused();
+        if (retainedMeshes + retainedTextures > 0)
+            Log.i(TAG, String.format(Locale.US, RETAINED_ASSETS, retainedMeshes, retainedTextures));
+    }
+
+    /**
+     * Starts loading the mesh and the textures of a target object in background.
+     * Assets which are already loaded or being loaded are not requested again.
+     * The selected texture is loaded only if {@link #SHADER_HIGHLIGHT} is false.
+     *
+     * @param context The current application context.
+     * @param object  The target object to load.
+     */
+    synchronized public void prefetch(Context context, Target object) {
+        prefetchMesh(context, object.getFilePath());
+        if (!SHADER_HIGHLIGHT)
+            prefetchTexture(context, object.getSelectedTexturePath());
+        prefetchTexture(context, object.getNotSelectedTexturePath());
+    }
+
+    /**
+     * Starts loading a mesh in background, if needed.
+     *
+     * @param context     The current application context.
+     * @param objFilePath The path to the .obj file.
+     * @return The registry entry of the mesh.
+     */
+    private Asset prefetchMesh(Context context, String objFilePath) {
+        Asset asset = getAsset(objFilePath);
+        if (!asset.failed && asset.mesh == null && asset.meshData == null && asset.pendingMesh == null)
+            asset.pendingMesh = getAssetLoader(context).loadMesh(objFilePath);
+        return asset;
+    }
+
+    /**
+     * Starts loading a texture in background, if needed.
      *
-     * @param context             The current application context.
-     * @param object              The target object to which apply textures.
-     * @param objectPositionParam The position attribute in the shader.
-     * @param objectUvParam       The UV attribute in the shader.
+     * @param context     The current application context.
+     * @param texturePath The path to the image.
+     * @return The registry entry of the texture.
      */
-    public void applyTexture(Context context, Target object, int objectPositionParam, int objectUvParam) {
+    private Asset prefetchTexture(Context context, String texturePath) {
+        Asset asset = getAsset(texturePath);
+        if (!asset.failed && asset.texture == null && asset.textureData == null && asset.pendingTexture == null)
+            asset.pendingTexture = getAssetLoader(context).loadTexture(texturePath);
+        return asset;
+    }
+
+    /**
+     * Checks if the assets of a target object can be acquired without waiting for them to be loaded.
+     *
+     * @param object The target object to check.
+     * @return True if the target has been prefetched and its assets are ready, false otherwise.
+     */
+    synchronized public boolean isReady(Target object) {
+        return isReady(object.getFilePath())
+                && (SHADER_HIGHLIGHT || isReady(object.getSelectedTexturePath()))
+                && isReady(object.getNotSelectedTexturePath());
+    }
+
+    /**
+     * @param path The path of an asset.
+     * @return True if the asset can be acquired without waiting.
+     */
+    private boolean isReady(String path) {
+        Asset asset = mAssets.get(path);
+        return asset != null && asset.isReady();
+    }
+
+    /**
+     * Gets a mesh, loading and uploading it if it is not in the registry yet.
+     * It must be called on the GL thread, and each call must be paired with a {@link #release(String)}.
+     *
+     * @param context        The current application context.
+     * @param objFilePath    The path to the .obj file.
+     * @param positionAttrib The position attribute in the shader.
+     * @param uvAttrib       The UV attribute in the shader.
+     * @return The mesh, shared with all its users.
+     * @throws IOException if the mesh can not be loaded.
+     */
+    public TexturedMesh acquireMesh(Context context, String objFilePath, int positionAttrib, int uvAttrib)
+            throws IOException {
+        Asset asset;
+        Future<MeshData> pending;
+        synchronized (this) {
+            asset = prefetchMesh(context, objFilePath);
+            if (asset.failed)
+                throw new IOException(LOAD_FAILED + objFilePath);
+            asset.references++;
+            if (asset.mesh != null)
+                return asset.mesh;
+            pending = asset.pendingMesh;
+        }
+
+        // Waits for the CPU stage without blocking the other users of the registry.
+        MeshData data = null;
+        IOException error = null;
+        if (pending != null) {
+            try {
+                data = AssetLoader.await(pending);
+            } catch (IOException e) {
+                error = e;
+            }
+        }
+
+        synchronized (this) {
+            if (pending != null) {
+                asset.pendingMesh = null;
+                asset.meshData = data;
+            }
+            if (asset.meshData == null) {
+                asset.failed = true;
+                asset.references--;
+                throw error != null ? error : new IOException(LOAD_FAILED + objFilePath);
+            }
+            if (asset.mesh == null) {
+                long startTime = StartupProfiler.now();
+                asset.mesh = new TexturedMesh(asset.meshData, positionAttrib, uvAttrib, mMeshArena);
+                StartupProfiler.getInstance().recordAsset(StartupProfiler.UPLOAD_STAGE, objFilePath, startTime,
+                        asset.meshData.getByteSize());
+            }
+            return asset.mesh;
+        }
+    }
+
+    /**
+     * Gets a texture, loading and uploading it if it is not in the registry yet.
+     * It must be called on the GL thread, and each call must be paired with a {@link #release(String)}.
+     *
+     * @param context     The current application context.
+     * @param texturePath The path to the image.
+     * @param layered     True to upload the texture into the shared texture array when possible,
+     *                    in which case it is returned as a layer (see {@link Texture#getLayer()}).
+     * @return The texture, shared with all its users.
+     * @throws IOException if the texture can not be loaded.
+     */
+    public Texture acquireTexture(Context context, String texturePath, boolean layered) throws IOException {
+        Asset asset;
+        Future<TextureData> pending;
+        synchronized (this) {
+            asset = prefetchTexture(context, texturePath);
+            if (asset.failed)
+                throw new IOException(LOAD_FAILED + texturePath);
+            asset.references++;
+            if (asset.texture == null && asset.textureData != null)
+                asset.texture = upload(texturePath, asset.textureData, layered);
+            if (asset.texture != null)
+                return asset.texture;
+            pending = asset.pendingTexture;
+        }
+
+        // Waits for the CPU stage without blocking the other users of the registry.
+        TextureData data = null;
+        IOException error = null;
         try {
-            mTexturedMesh = new TexturedMesh(context, object.getFilePath(), objectPositionParam, objectUvParam);
-            mSelectedTexture = new Texture(context, object.getSelectedTexturePath());
-            mNotSelectedTexture = new Texture(context, object.getNotSelectedTexturePath());
+            data = AssetLoader.await(pending);
         } catch (IOException e) {
-            Log.e(TAG, context.getResources().getString(R.string.init_failed), e);
+            error = e;
+        }
+
+        synchronized (this) {
+            asset.pendingTexture = null;
+            if (data == null) {
+                asset.failed = true;
+                asset.references--;
+                throw error != null ? error : new IOException(LOAD_FAILED + texturePath);
+            }
+            if (data.canUploadAgain())
+                asset.textureData = data;
+            asset.texture = upload(texturePath, data, layered);
+            return asset.texture;
         }
     }
 
     /**
-     * Gets the rendered target object.
+     * Uploads a texture to the current GL context.
      *
-     * @return A {@link TexturedMesh} object.
+     * @param texturePath The path to the image.
+     * @param data        The texture data.
+     * @param layered     True to upload the texture into the shared texture array when possible.
+     * @return The texture.
      */
-    public TexturedMesh getTexturedMesh() {
-        return mTexturedMesh;
+    private Texture upload(String texturePath, TextureData data, boolean layered) {
+        long startTime = StartupProfiler.now();
+        // The size is read before a decoded image is recycled.
+        long bytes = data.getByteSize();
+        Texture texture = null;
+        if (layered && mTextureArray != null)
+            texture = mTextureArray.add(data);
+        // Standalone texture, if the array is not supported, full or of another format.
+        if (texture == null)
+            texture = new Texture(data);
+        StartupProfiler.getInstance().recordAsset(StartupProfiler.UPLOAD_STAGE, texturePath, startTime, bytes);
+        return texture;
     }
 
     /**
-     * Gets the texture used for the target when it is selected.
+     * Gives back an asset obtained with {@link #acquireMesh(Context, String, int, int)} or
+     * {@link #acquireTexture(Context, String, boolean)}. It must be called on the GL thread.
      *
-     * @return A {@link Texture} object.
+     * @param path The path of the asset.
      */
-    public Texture getSelectedTexture() {
-        return mSelectedTexture;
+    synchronized public void release(String path) {
+        Asset asset = mAssets.get(path);
+        if (asset == null || asset.references == 0) {
+            Log.w(TAG, "Released an unused asset: " + path);
+            return;
+        }
+        if (--asset.references == 0)
+            trimUnused();
     }
 
     /**
-     * Gets the texture used for the target when it is not selected.
+     * Deletes the least recently used assets that nobody uses, until at most {@value #MAX_UNUSED_ASSETS}
+     * of them are left. Assets which are being prefetched are kept, since they have been requested
+     * ahead of their users and may not be requested again.
+     */
+    private void trimUnused() {
+        int unused = 0;
+        for (Asset asset : mAssets.values()) {
+            if (asset.isUnused())
+                unused++;
+        }
+
+        Iterator<Asset> iterator = mAssets.values().iterator();
+        while (unused > MAX_UNUSED_ASSETS && iterator.hasNext()) {
+            Asset asset = iterator.next();
+            if (!asset.isUnused())
+                continue;
+
+            if (asset.mesh != null)
+                asset.mesh.delete();
+            if (asset.texture != null)
+                asset.texture.delete();
+            iterator.remove();
+            unused--;
+        }
+    }
+
+    /**
+     * Gets the registry entry of an asset, creating it if it does not exist.
      *
-     * @return A {@link Texture} object.
+     * @param path The path of the asset.
+     * @return The registry entry, marked as the most recently used.
+     */
+    private Asset getAsset(String path) {
+        Asset asset = mAssets.get(path);
+        if (asset == null) {
+            asset = new Asset();
+            mAssets.put(path, asset);
+        }
+        return asset;
+    }
+
+    /**
+     * @param context The current application context.
+     * @return The loader used for the CPU stage, created when first needed.
      */
-    public Texture getNotSelectedTexture() {
-        return mNotSelectedTexture;
+    private AssetLoader getAssetLoader(Context context) {
+        if (mAssetLoader == null)
+            mAssetLoader = new AssetLoader(context);
+        return mAssetLoader;
     }
 }
@@ -0,0 +1,194 @@
+package com.esp1920.lookandpick;
+
+import android.os.SystemClock;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class stores the state of all the objects on the scene in flat arrays of primitives, one entry
+ * per object: its position, its mesh index, the expiry time of its disappearance timer and its flags.
+ * <p>
+ * An object is identified by its index in the store, and {@link PickableTarget} is only a view of an
+ * entry. Loops which run every frame walk the arrays directly, so the number of objects can grow without
+ * allocating memory or following references per object.
+ * The {@link Target} of an object is the entry of the catalogue at its mesh index.
+ * Disappearance timers are expiry times, checked against {@link #now()} when needed, instead of timers
+ * which post to a thread when they finish.
+ * </p>
+ */
+/* package */ class TargetStore {
+    private static final String TAG = "TargetStore";
+
+    // Flags of an object: it has a disappearance timer, or it has been hidden by stopAndHide().
+    private static final int TIMED = 1;
+    private static final int HIDDEN = 2;
+    // Expiry time of an object whose timer is not running.
+    private static final long NEVER = Long.MAX_VALUE;
+
+    private final List<Target> mCatalogue;
+
+    // Coordinates of each object: x, y and z.
+    private final float[] mPositions;
+    private final int[] mMeshIndices;
+    // Time at which each object disappears, from now(), and the duration of its timer in milliseconds.
+    private final long[] mExpiryTimes;
+    private final long[] mDurations;
+    private final int[] mFlags;
+
+    /**
+     * Constructor.
+     *
+     * @param size      The number of objects.
+     * @param catalogue The targets which the objects can be, indexed by mesh index.
+     */
+    TargetStore(int size, List<Target> catalogue) {
+        mCatalogue = catalogue;
+        mPositions = new float[size * 3];
+        mMeshIndices = new int[size];
+        mExpiryTimes = new long[size];
+        mDurations = new long[size];
+        mFlags = new int[size];
+        clear();
+    }
+
+    /**
+     * @return The current time of the clock used by the disappearance timers, in milliseconds.
+     */
+    public static long now() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Resets all the objects: they are at the origin, with mesh index 0 and without timer.
+     */
+    public void clear() {
+        Arrays.fill(mPositions, 0);
+        Arrays.fill(mMeshIndices, 0);
+        Arrays.fill(mExpiryTimes, NEVER);
+        Arrays.fill(mDurations, 0);
+        Arrays.fill(mFlags, 0);
+    }
+
+    /**
+     * @return The coordinates of all the objects, those of object i from index 3 * i.
+     * They must not be modified: use {@link #setPosition(int, float, float, float)}.
+     */
+    public float[] getPositions() {
+        return mPositions;
+    }
+
+    /**
+     * @param index The index of the object.
+     * @return The x coordinate of the object.
+     */
+    public float getXCoordinate(int index) {
+        return mPositions[index * 3];
+    }
+
+    /**
+     * @param index The index of the object.
+     * @return The y coordinate of the object.
+     */
+    public float getYCoordinate(int index) {
+        return mPositions[index * 3 + 1];
+    }
+
+    /**
+     * @param index The index of the object.
+     * @return The z coordinate of the object.
+     */
+    public float getZCoordinate(int index) {
+        return mPositions[index * 3 + 2];
+    }
+
+    /**
+     * Moves an object.
+     *
+     * @param index The index of the object.
+     * @param x     The x coordinate of the position.
+     * @param y     The y coordinate of the position.
+     * @param z     The z coordinate of the position.
+     */
+    public void setPosition(int index, float x, float y, float z) {
+        mPositions[index * 3] = x;
+        mPositions[index * 3 + 1] = y;
+        mPositions[index * 3 + 2] = z;
+    }
+
+    /**
+     * @param index The index of the object.
+     * @return The mesh index of the object.
+     */
+    public int getMeshIndex(int index) {
+        return mMeshIndices[index];
+    }
+
+    /**
+     * Changes the mesh of an object, and so its {@link Target}.
+     *
+     * @param index     The index of the object.
+     * @param meshIndex The new mesh index.
+     */
+    public void setMeshIndex(int index, int meshIndex) {
+        mMeshIndices[index] = meshIndex;
+    }
+
+    /**
+     * @param index The index of the object.
+     * @return The {@link Target} of the object.
+     */
+    public Target getTarget(int index) {
+        return mCatalogue.get(mMeshIndices[index]);
+    }
+
+    /**
+     * Gives a disappearance timer to an object. The timer does not run until it is restarted.
+     *
+     * @param index    The index of the object.
+     * @param duration The time the object remains on the scene, in milliseconds.
+     */
+    public void initializeTimer(int index, long duration) {
+        mDurations[index] = duration;
+        mExpiryTimes[index] = NEVER;
+        mFlags[index] = TIMED;
+    }
+
+    /**
+     * @param index The index of the object.
+     * @return True if the object has a disappearance timer.
+     */
+    public boolean hasTimer(int index) {
+        return (mFlags[index] & TIMED) != 0;
+    }
+
+    /**
+     * Shows an object and restarts the countdown of its timer.
+     *
+     * @param index The index of the object.
+     */
+    public void restartTimer(int index) {
+        mExpiryTimes[index] = now() + mDurations[index];
+        mFlags[index] &= ~HIDDEN;
+    }
+
+    /**
+     * Stops the timer of an object and hides it. For example, it is useful when the game is over and
+     * all objects have to disappear, without continuing the timers' countdown.
+     *
+     * @param index The index of the object.
+     */
+    public void stopAndHide(int index) {
+        mExpiryTimes[index] = NEVER;
+        mFlags[index] |= HIDDEN;
+    }
+
+    /**
+     * @param index The index of the object.
+     * @param now   The current time, from {@link #now()}.
+     * @return True if the object has disappeared from the scene.
+     */
+    public boolean isHidden(int index, long now) {
+        return (mFlags[index] & HIDDEN) != 0 || now >= mExpiryTimes[index];
+    }
+}
@@ -6,14 +6,27 @@ import android.graphics.BitmapFactory;
 import android.opengl.GLES20;
 import android.opengl.GLUtils;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 /**
  * This class has been written by Google and represents a texture, meant for use with {@link TexturedMesh}.
  * It is taken from gvr-android-sdk-1.200 project, more precisely from sdk-hellovr sample.
  */
 /* package */ class Texture {
+    private final static String DECODE_FAILED = "Unable to decode ";
+
+    // PNG color types without an alpha channel: grayscale and RGB.
+    private static final int PNG_COLOR_TYPE_OFFSET = 25;
+    private static final int PNG_GRAYSCALE = 0;
+    private static final int PNG_RGB = 2;
+
     private final int[] textureId = new int[1];
+    // The texture array this texture is a layer of, or null for a standalone texture.
+    private final TextureArray array;
+    private final int layer;
 
     /**
      * Initializes the texture.
@@ -22,6 +35,19 @@ import java.io.IOException;
      * @param texturePath The path to the image to use for the texture.
      */
     public Texture(Context context, String texturePath) throws IOException {
+        this(TextureData.load(context, texturePath));
+    }
+
+    /**
+     * Initializes the texture from already loaded data. A decoded image is recycled afterwards.
+     * This must be called on the GL thread.
+     *
+     * @param data The compressed levels, the decoded image or the decoded pixels to use for the texture.
+     */
+    public Texture(TextureData data) {
+        array = null;
+        layer = -1;
+
         // Generates a name for the texture and stores it in textureId.
         GLES20.glGenTextures(1, textureId, 0);
 
@@ -32,28 +58,150 @@ import java.io.IOException;
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
 
-        // Sets texture minifying and magnifying functions.
-        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR_MIPMAP_NEAREST);
+        // Sets texture minifying and magnifying functions. Mipmaps are used unless a compressed
+        // texture comes without them.
+        boolean mipmapped = !data.isCompressed() || data.getLevels().length > 1;
+        GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MIN_FILTER,
+                mipmapped ? GLES20.GL_LINEAR_MIPMAP_NEAREST : GLES20.GL_LINEAR);
         GLES20.glTexParameteri(GLES20.GL_TEXTURE_2D, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
 
-        // Creates a bitmap from the given texture.
-        Bitmap textureBitmap = BitmapFactory.decodeStream(context.getAssets().open(texturePath));
+        if (data.isCompressed()) {
+            // Specifies each level of the pre-compressed MIP map.
+            ByteBuffer[] levels = data.getLevels();
+            for (int level = 0; level < levels.length; level++) {
+                GLES20.glCompressedTexImage2D(GLES20.GL_TEXTURE_2D, level, data.getInternalFormat(),
+                        Math.max(1, data.getWidth() >> level), Math.max(1, data.getHeight() >> level), 0,
+                        levels[level].capacity(), levels[level]);
+            }
+        } else if (data.getPixels() != null) {
+            // Specifies the texture from the decoded pixels stored in the cache, and generates a MIP map.
+            // RGB 565 rows are only aligned to 2 bytes.
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 2);
+            GLES20.glTexImage2D(GLES20.GL_TEXTURE_2D, 0, data.getPixelFormat(), data.getWidth(), data.getHeight(), 0,
+                    data.getPixelFormat(), data.getPixelType(), data.getPixels());
+            GLES20.glPixelStorei(GLES20.GL_UNPACK_ALIGNMENT, 4);
+            GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        } else {
+            // Specifies the texture for the current texture unit and generates a MIP map.
+            Bitmap textureBitmap = data.getBitmap();
+            GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
+            textureBitmap.recycle();
+            GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+        }
+    }
 
-        // Specifies the texture for the current texture unit and generates a MIP map.
-        GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, textureBitmap, 0);
-        textureBitmap.recycle();
-        GLES20.glGenerateMipmap(GLES20.GL_TEXTURE_2D);
+    /**
+     * Initializes a texture stored in a layer of a texture array. Use {@link TextureArray#add(TextureData)}.
+     *
+     * @param array The texture array.
+     * @param layer The layer of the texture.
+     */
+    /* package */ Texture(TextureArray array, int layer) {
+        this.array = array;
+        this.layer = layer;
     }
 
     /**
-     * Binds the texture to GL_TEXTURE0.
+     * Decodes the image of a texture. It does not need a GL context, so it can be called on any thread.
+     * The image is subsampled by the smallest power of two that makes it fit the maximum size.
+     *
+     * @param context     The context for loading the texture file.
+     * @param texturePath The path to the image to use for the texture.
+     * @param maxSize     The maximum width and height of the decoded image.
+     * @param rgb565      True to decode opaque images with 16 bits per pixel.
+     * @return The decoded image.
+     * @throws IOException if the image can not be read or decoded.
+     */
+    public static Bitmap decode(Context context, String texturePath, int maxSize, boolean rgb565)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        boolean opaque;
+        // Reads the header and the size of the image first, to choose how to decode it.
+        try (InputStream textureInputStream = new BufferedInputStream(context.getAssets().open(texturePath))) {
+            textureInputStream.mark(PNG_COLOR_TYPE_OFFSET + 1);
+            opaque = isOpaquePng(textureInputStream);
+            textureInputStream.reset();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(textureInputStream, null, options);
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = 1;
+        while (Math.max(options.outWidth, options.outHeight) / options.inSampleSize > maxSize)
+            options.inSampleSize *= 2;
+        options.inPreferredConfig = rgb565 && opaque ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+
+        Bitmap textureBitmap;
+        try (InputStream textureInputStream = context.getAssets().open(texturePath)) {
+            textureBitmap = BitmapFactory.decodeStream(textureInputStream, null, options);
+        }
+        if (textureBitmap == null) {
+            throw new IOException(DECODE_FAILED + texturePath);
+        }
+        return textureBitmap;
+    }
+
+    /**
+     * Reads the color type in the header of a PNG image.
+     *
+     * @param input The image.
+     * @return True if the image is a PNG without alpha channel, false otherwise.
+     * @throws IOException if the image can not be read.
+     */
+    private static boolean isOpaquePng(InputStream input) throws IOException {
+        byte[] header = new byte[PNG_COLOR_TYPE_OFFSET + 1];
+        int read = 0;
+        while (read < header.length) {
+            int count = input.read(header, read, header.length - read);
+            if (count < 0)
+                return false;
+            read += count;
+        }
+        int colorType = header[PNG_COLOR_TYPE_OFFSET];
+        return header[1] == 'P' && header[2] == 'N' && header[3] == 'G'
+                && (colorType == PNG_GRAYSCALE || colorType == PNG_RGB);
+    }
+
+    /**
+     * @return The layer of the texture array, or -1 for a standalone texture.
+     */
+    public int getLayer() {
+        return layer;
+    }
+
+    /**
+     * @return The GL name of the texture bound by {@link #bind()}: for a layer, that of the texture array.
+     */
+    public int getGlName() {
+        return array != null ? array.getGlName() : textureId[0];
+    }
+
+    /**
+     * Binds the texture to GL_TEXTURE0. For a layer, the whole texture array is bound: its shader
+     * must select the layer.
      */
     public void bind() {
-        // Activates texture unit.
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        if (array != null) {
+            array.bind();
+            return;
+        }
 
-        // Binds texture to two-dimensional target (face of polygon).
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId[0]);
+        // Activates texture unit and binds texture to two-dimensional target (face of polygon),
+        // unless it is already bound.
+        GlState.bindTexture(GLES20.GL_TEXTURE_2D, textureId[0]);
     }
-}
 
+    /**
+     * Deletes the texture from GPU memory, or frees its layer of the texture array.
+     * It can not be bound anymore.
+     */
+    public void delete() {
+        if (array != null) {
+            array.free(layer);
+        } else {
+            GLES20.glDeleteTextures(1, textureId, 0);
+            // The deleted texture may have been bound.
+            GlState.invalidate();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.esp1920.lookandpick;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class packs textures of the same size and compressed format into the layers of a single
+ * OpenGL ES 3.0 texture array, so that all of them can be sampled while only one texture is bound.
+ * <p>
+ * The first texture added sets the size, format and number of levels of the array: textures that do
+ * not match them can not be added, and must be used as separate {@link Texture} objects.
+ * Since targets are streamed in when first needed, storage is only allocated for the layers in use:
+ * when they are all taken, the array is allocated again with twice as many layers, up to the maximum,
+ * and the textures already added are uploaded again from their data, which the array keeps.
+ * </p>
+ */
+/* package */ class TextureArray {
+    // Compressed formats. ETC1 data is a subset of ETC2, which supports texture arrays.
+    private static final int GL_ETC1_RGB8_OES = 0x8D64;
+    private static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+
+    // Number of layers allocated by the first texture.
+    private static final int INITIAL_LAYERS = 4;
+
+    private final int[] textureId = new int[1];
+    // Compressed levels of the texture stored in each layer, or null if the layer is free.
+    private final ByteBuffer[][] layerLevels;
+    // Number of layers with storage in the current texture array.
+    private int allocatedLayers;
+
+    private boolean allocated;
+    private int internalFormat;
+    private int width;
+    private int height;
+    private int levelCount;
+
+    /**
+     * Constructor. It must be called on the GL thread of an OpenGL ES 3.0 context.
+     *
+     * @param layers The maximum number of textures in the array.
+     */
+    public TextureArray(int layers) {
+        layerLevels = new ByteBuffer[layers][];
+    }
+
+    /**
+     * Uploads a texture into a free layer of the array.
+     *
+     * @param data The compressed texture to add.
+     * @return The texture, which samples its layer of the array, or null if the texture does not
+     * match the others or the array is full.
+     */
+    public Texture add(TextureData data) {
+        if (!data.isCompressed())
+            return null;
+        ByteBuffer[] levels = data.getLevels();
+        int format = data.getInternalFormat() == GL_ETC1_RGB8_OES
+                ? GL_COMPRESSED_RGB8_ETC2 : data.getInternalFormat();
+
+        if (allocated && (format != internalFormat || data.getWidth() != width
+                || data.getHeight() != height || levels.length != levelCount))
+            return null;
+
+        int layer = 0;
+        while (layer < layerLevels.length && layerLevels[layer] != null)
+            layer++;
+        if (layer == layerLevels.length)
+            return null;
+
+        if (!allocated) {
+            internalFormat = format;
+            width = data.getWidth();
+            height = data.getHeight();
+            levelCount = levels.length;
+            allocated = true;
+        }
+        layerLevels[layer] = levels;
+        if (layer >= allocatedLayers) {
+            // Uploads the new layer with the others.
+            allocate(Math.min(layerLevels.length, Math.max(INITIAL_LAYERS, allocatedLayers * 2)));
+        } else {
+            bind();
+            uploadLayer(layer);
+        }
+        Util.checkGlError("TextureArray.add");
+
+        return new Texture(this, layer);
+    }
+
+    /**
+     * Replaces the texture array with a new one, and uploads into it all the layers in use.
+     *
+     * @param layers The number of layers of the new texture array.
+     */
+    private void allocate(int layers) {
+        if (allocatedLayers > 0)
+            release();
+        GLES20.glGenTextures(1, textureId, 0);
+        allocatedLayers = layers;
+
+        bind();
+        GLES30.glTexStorage3D(GLES30.GL_TEXTURE_2D_ARRAY, levelCount, internalFormat, width, height, layers);
+        GLES20.glTexParameteri(GLES30.GL_TEXTURE_2D_ARRAY, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES30.GL_TEXTURE_2D_ARRAY, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES30.GL_TEXTURE_2D_ARRAY, GLES20.GL_TEXTURE_MIN_FILTER,
+                levelCount > 1 ? GLES20.GL_LINEAR_MIPMAP_NEAREST : GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES30.GL_TEXTURE_2D_ARRAY, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        for (int layer = 0; layer < layers; layer++) {
+            if (layerLevels[layer] != null)
+                uploadLayer(layer);
+        }
+    }
+
+    /**
+     * Uploads all the levels of a layer into the bound texture array.
+     *
+     * @param layer The layer to upload.
+     */
+    private void uploadLayer(int layer) {
+        ByteBuffer[] levels = layerLevels[layer];
+        for (int level = 0; level < levelCount; level++) {
+            GLES30.glCompressedTexSubImage3D(GLES30.GL_TEXTURE_2D_ARRAY, level, 0, 0, layer,
+                    Math.max(1, width >> level), Math.max(1, height >> level), 1,
+                    internalFormat, levels[level].capacity(), levels[level]);
+        }
+    }
+
+    /**
+     * @return The GL name of the texture array. It changes when the array grows.
+     */
+    public int getGlName() {
+        return textureId[0];
+    }
+
+    /**
+     * Binds the texture array to GL_TEXTURE0.
+     */
+    public void bind() {
+        GlState.bindTexture(GLES30.GL_TEXTURE_2D_ARRAY, textureId[0]);
+    }
+
+    /**
+     * Makes a layer available for another texture. Its content is not cleared.
+     *
+     * @param layer The layer to free.
+     */
+    public void free(int layer) {
+        layerLevels[layer] = null;
+    }
+
+    /**
+     * Deletes the texture array from GPU memory, with all its layers.
+     */
+    public void release() {
+        GLES20.glDeleteTextures(1, textureId, 0);
+        GlState.invalidate();
+    }
+}
@@ -0,0 +1,403 @@
+package com.esp1920.lookandpick;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.opengl.GLES20;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This class holds the CPU-side data of a texture, ready to be uploaded by {@link Texture}: either
+ * a decoded image or a pre-compressed mip chain.
+ * <p>
+ * Textures are preferably loaded from the KTX files generated at build time by the convertTextures
+ * task, in the best compressed format supported by the GL context: ASTC, then ETC2, then ETC1.
+ * Compressed textures stay compressed in GPU memory and need neither decoding nor mipmap generation.
+ * The .png image is decoded only when no compressed version can be used.
+ * In both cases, the resolution is limited by the {@link TextureQuality} tier and by the GL context.
+ * The compressed levels and the decoded pixels are stored in the {@link AssetCache}, so that the next
+ * launches map them instead of reading the KTX file or decoding the image again.
+ * Loading does not need a GL context, so it can be done on any thread.
+ * </p>
+ */
+/* package */ class TextureData {
+    private static final String TAG = "TextureData";
+    private final static String PNG_EXTENSION = ".png";
+    private final static String ASTC_EXTENSION = ".astc.ktx";
+    private final static String ETC1_EXTENSION = ".etc1.ktx";
+    private final static String INVALID_KTX = "Invalid KTX texture: ";
+    private final static String NO_COMPRESSED_TEXTURE = "No compressed texture supported, decoding ";
+    private final static String INVALID_CACHE = "Invalid cached texture: ";
+    private final static String KTX_CACHE_VARIANT = "ktx.";
+    private final static String PIXELS_CACHE_VARIANT = "pixels.";
+    private final static String RGB565_CACHE_VARIANT = ".565";
+
+    private final static String ASTC_EXTENSION_NAME = "GL_KHR_texture_compression_astc_ldr";
+    private final static String ETC1_EXTENSION_NAME = "GL_OES_compressed_ETC1_RGB8_texture";
+
+    // Format of ETC2 RGB textures, from OpenGL ES 3.0.
+    private static final int GL_COMPRESSED_RGB8_ETC2 = 0x9274;
+
+    // Layout of a KTX file, see KtxWriter in buildSrc.
+    private static final byte[] KTX_IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int KTX_ENDIANNESS = 0x04030201;
+    private static final int KTX_HEADER_FIELDS = 13;
+
+    // Time to wait for the GL context before giving up on compressed textures, in milliseconds.
+    private static final long CAPABILITIES_TIMEOUT = 5000;
+
+    private Bitmap bitmap;
+    // Decoded pixels read from the cache, with their GL format and type, in place of the bitmap.
+    private ByteBuffer pixels;
+    private int pixelFormat;
+    private int pixelType;
+    private int internalFormat;
+    private int width;
+    private int height;
+    private ByteBuffer[] levels;
+
+    /**
+     * Constructor. It is private: use {@link #load(Context, String)}.
+     */
+    private TextureData() {
+    }
+
+    /**
+     * Loads the data of a texture.
+     *
+     * @param context     The context for loading the texture files.
+     * @param texturePath The path to the .png image.
+     * @return The loaded texture data.
+     * @throws IOException if the texture can not be read.
+     */
+    public static TextureData load(Context context, String texturePath) throws IOException {
+        TextureData data = new TextureData();
+        String basePath = texturePath.substring(0, texturePath.length() - PNG_EXTENSION.length());
+
+        TextureQuality quality = TextureQuality.get(context);
+        int maxSize = quality.getMaxSize();
+
+        GlCapabilities capabilities = GlCapabilities.await(CAPABILITIES_TIMEOUT);
+        if (capabilities != null) {
+            maxSize = Math.min(maxSize, capabilities.getMaxTextureSize());
+            if (capabilities.hasExtension(ASTC_EXTENSION_NAME)
+                    && data.readKtx(context, basePath + ASTC_EXTENSION, maxSize))
+                return data;
+
+            // ETC2 decoders, mandatory in OpenGL ES 3.0, also accept ETC1 data.
+            if (capabilities.hasExtension(ETC1_EXTENSION_NAME) || capabilities.isEs3()) {
+                if (data.readKtx(context, basePath + ETC1_EXTENSION, maxSize)) {
+                    if (!capabilities.hasExtension(ETC1_EXTENSION_NAME))
+                        data.internalFormat = GL_COMPRESSED_RGB8_ETC2;
+                    return data;
+                }
+            }
+        }
+
+        AssetCache cache = AssetCache.getInstance(context);
+        String variant = PIXELS_CACHE_VARIANT + maxSize + (quality.useRgb565() ? RGB565_CACHE_VARIANT : "");
+        ByteBuffer cached = cache.read(texturePath, variant);
+        if (cached != null) {
+            try {
+                data.pixels = data.unpack(cached, texturePath)[0];
+                return data;
+            } catch (IOException e) {
+                // The entry is deleted, and written again from the decoded image.
+                Log.w(TAG, INVALID_CACHE + texturePath, e);
+                cache.delete(texturePath, variant);
+            }
+        }
+
+        Log.w(TAG, NO_COMPRESSED_TEXTURE + texturePath);
+        data.bitmap = Texture.decode(context, texturePath, maxSize, quality.useRgb565());
+        data.width = data.bitmap.getWidth();
+        data.height = data.bitmap.getHeight();
+        data.cachePixels(cache, texturePath, variant);
+        return data;
+    }
+
+    /**
+     * Stores the pixels of the decoded image in the cache, if their format can be uploaded directly.
+     *
+     * @param cache       The cache.
+     * @param texturePath The path to the .png image.
+     * @param variant     The name of the cache entry.
+     */
+    private void cachePixels(AssetCache cache, String texturePath, String variant) {
+        int format;
+        int type;
+        if (bitmap.getConfig() == Bitmap.Config.RGB_565) {
+            format = GLES20.GL_RGB;
+            type = GLES20.GL_UNSIGNED_SHORT_5_6_5;
+        } else if (bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+            // The bytes of ARGB_8888 bitmaps are in RGBA order, with premultiplied alpha as GLUtils uploads them.
+            format = GLES20.GL_RGBA;
+            type = GLES20.GL_UNSIGNED_BYTE;
+        } else {
+            return;
+        }
+        ByteBuffer bitmapPixels = ByteBuffer.allocate(bitmap.getRowBytes() * bitmap.getHeight());
+        bitmap.copyPixelsToBuffer(bitmapPixels);
+        bitmapPixels.flip();
+        cache.write(texturePath, variant, pack(format, type, new ByteBuffer[]{bitmapPixels}));
+    }
+
+    /**
+     * Writes the levels of the texture in the format of the cache entries:
+     * format, type (0 for compressed textures), width, height and number of levels, followed by the size
+     * and the data of each level, padded to 4 bytes.
+     *
+     * @param format The GL format of the levels, or their internal format if they are compressed.
+     * @param type   The GL type of the pixels, or 0 if they are compressed.
+     * @param images The levels, from their position to their limit.
+     * @return The cache entry.
+     */
+    private ByteBuffer pack(int format, int type, ByteBuffer[] images) {
+        int size = 5 * 4;
+        for (ByteBuffer image : images) {
+            size += 4 + ((image.remaining() + 3) & ~3);
+        }
+        ByteBuffer packed = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        packed.putInt(format);
+        packed.putInt(type);
+        packed.putInt(width);
+        packed.putInt(height);
+        packed.putInt(images.length);
+        for (ByteBuffer image : images) {
+            int imageSize = image.remaining();
+            packed.putInt(imageSize);
+            packed.put(image.duplicate());
+            packed.position(packed.position() + (((imageSize + 3) & ~3) - imageSize));
+        }
+        packed.flip();
+        return packed;
+    }
+
+    /**
+     * Reads a cache entry written by {@link #pack(int, int, ByteBuffer[])}. The levels are views over it.
+     * The formats of the texture are only set if the entry is valid.
+     *
+     * @param packed      The cache entry.
+     * @param texturePath The path of the cached texture, for error messages.
+     * @return The levels.
+     * @throws IOException if the entry is not valid.
+     */
+    private ByteBuffer[] unpack(ByteBuffer packed, String texturePath) throws IOException {
+        try {
+            int format = packed.getInt();
+            int type = packed.getInt();
+            int entryWidth = packed.getInt();
+            int entryHeight = packed.getInt();
+            ByteBuffer[] images = new ByteBuffer[packed.getInt()];
+            for (int i = 0; i < images.length; i++) {
+                int size = packed.getInt();
+                ByteBuffer image = packed.slice();
+                image.limit(size);
+                images[i] = image.order(ByteOrder.nativeOrder());
+                packed.position(packed.position() + ((size + 3) & ~3));
+            }
+            if (images.length == 0)
+                throw new IOException(INVALID_CACHE + texturePath);
+            width = entryWidth;
+            height = entryHeight;
+            if (type == 0) {
+                internalFormat = format;
+            } else {
+                pixelFormat = format;
+                pixelType = type;
+            }
+            return images;
+        } catch (RuntimeException e) {
+            // Thrown for entries shorter than they claim to be.
+            throw new IOException(INVALID_CACHE + texturePath, e);
+        }
+    }
+
+    /**
+     * Reads a compressed texture from a KTX file. The levels larger than the maximum size are skipped,
+     * so that the texture starts from the first level which fits.
+     *
+     * @param context The context for loading the texture file.
+     * @param ktxPath The path to the KTX file.
+     * @param maxSize The maximum width and height of the texture.
+     * @return True if the texture has been read, false if the file does not exist.
+     * @throws IOException if the file can not be read or it is not valid.
+     */
+    private boolean readKtx(Context context, String ktxPath, int maxSize) throws IOException {
+        AssetCache cache = AssetCache.getInstance(context);
+        String variant = KTX_CACHE_VARIANT + maxSize;
+        ByteBuffer cached = cache.read(ktxPath, variant);
+        if (cached != null) {
+            try {
+                levels = unpack(cached, ktxPath);
+                return true;
+            } catch (IOException e) {
+                // The entry is deleted, and written again from the KTX file.
+                Log.w(TAG, INVALID_CACHE + ktxPath, e);
+                cache.delete(ktxPath, variant);
+            }
+        }
+
+        InputStream stream;
+        try {
+            stream = context.getAssets().open(ktxPath);
+        } catch (FileNotFoundException e) {
+            return false;
+        }
+
+        try (DataInputStream input = new DataInputStream(stream)) {
+            byte[] identifier = new byte[KTX_IDENTIFIER.length];
+            input.readFully(identifier);
+            for (int i = 0; i < identifier.length; i++) {
+                if (identifier[i] != KTX_IDENTIFIER[i])
+                    throw new IOException(INVALID_KTX + ktxPath);
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(KTX_HEADER_FIELDS * 4).order(ByteOrder.LITTLE_ENDIAN);
+            input.readFully(header.array());
+            if (header.getInt(0) != KTX_ENDIANNESS)
+                throw new IOException(INVALID_KTX + ktxPath);
+            internalFormat = header.getInt(4 * 4);
+            width = header.getInt(6 * 4);
+            height = header.getInt(7 * 4);
+            int levelCount = Math.max(1, header.getInt(11 * 4));
+            skipFully(input, header.getInt(12 * 4), ktxPath);
+
+            int skippedLevels = 0;
+            while (skippedLevels < levelCount - 1
+                    && Math.max(width >> skippedLevels, height >> skippedLevels) > maxSize)
+                skippedLevels++;
+
+            levels = new ByteBuffer[levelCount - skippedLevels];
+            byte[] sizeBytes = new byte[4];
+            for (int level = 0; level < levelCount; level++) {
+                input.readFully(sizeBytes);
+                int size = ByteBuffer.wrap(sizeBytes).order(ByteOrder.LITTLE_ENDIAN).getInt();
+                if (level < skippedLevels) {
+                    skipFully(input, (size + 3) & ~3, ktxPath);
+                    continue;
+                }
+                byte[] image = new byte[size];
+                input.readFully(image);
+                ByteBuffer buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+                buffer.put(image).position(0);
+                levels[level - skippedLevels] = buffer;
+                // Each level is padded to 4 bytes.
+                skipFully(input, ((size + 3) & ~3) - size, ktxPath);
+            }
+            width = Math.max(1, width >> skippedLevels);
+            height = Math.max(1, height >> skippedLevels);
+        }
+        cache.write(ktxPath, variant, pack(internalFormat, 0, levels));
+        return true;
+    }
+
+    /**
+     * Skips bytes of a KTX file, failing if it ends before them.
+     *
+     * @param input   The stream of the file.
+     * @param count   The number of bytes to skip.
+     * @param ktxPath The path of the file, for the error message.
+     * @throws IOException if the file is truncated.
+     */
+    private static void skipFully(DataInputStream input, int count, String ktxPath) throws IOException {
+        if (input.skipBytes(count) != count)
+            throw new IOException(INVALID_KTX + ktxPath);
+    }
+
+    /**
+     * @return True if the texture is pre-compressed, false if it is a decoded image or decoded pixels.
+     */
+    public boolean isCompressed() {
+        return levels != null;
+    }
+
+    /**
+     * @return The size of the compressed levels, of the decoded pixels or of the decoded image, in bytes.
+     */
+    public long getByteSize() {
+        if (levels != null) {
+            long size = 0;
+            for (ByteBuffer level : levels) {
+                size += level.capacity();
+            }
+            return size;
+        }
+        if (pixels != null)
+            return pixels.remaining();
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * @return True if the data is not consumed by the upload, so that it can be kept to upload the
+     * texture again into a new GL context. A decoded image is recycled after the upload.
+     */
+    public boolean canUploadAgain() {
+        return levels != null || pixels != null;
+    }
+
+    /**
+     * @return The decoded image, or null if the texture is compressed or its pixels come from the cache.
+     */
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * @return The decoded pixels read from the cache, or null if the texture is compressed or decoded
+     * into a bitmap.
+     */
+    public ByteBuffer getPixels() {
+        return pixels;
+    }
+
+    /**
+     * @return The GL format of the pixels, such as GL_RGBA, meaningful only if there are pixels.
+     */
+    public int getPixelFormat() {
+        return pixelFormat;
+    }
+
+    /**
+     * @return The GL type of the pixels, such as GL_UNSIGNED_BYTE, meaningful only if there are pixels.
+     */
+    public int getPixelType() {
+        return pixelType;
+    }
+
+    /**
+     * @return The compressed format, meaningful only if the texture is compressed.
+     */
+    public int getInternalFormat() {
+        return internalFormat;
+    }
+
+    /**
+     * @return The width of the first level.
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * @return The height of the first level.
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return The compressed levels, from the largest to the smallest, or null if the texture is not compressed.
+     */
+    public ByteBuffer[] getLevels() {
+        return levels;
+    }
+}
@@ -0,0 +1,134 @@
+package com.esp1920.lookandpick;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.DisplayMetrics;
+import android.util.Log;
+
+import java.util.Locale;
+
+/**
+ * This enum defines the quality tiers of the textures, which limit their resolution and pixel format
+ * to fit the device.
+ * <p>
+ * The tier is chosen automatically from the device memory and screen resolution, unless the player
+ * picked one: the choice is saved in the SettingsPreferences sharedPreferences file, and can be changed
+ * by starting the activity with a {@value #SETTING_KEY} string extra ("low", "medium", "high" or "auto").
+ * </p>
+ */
+/* package */ enum TextureQuality {
+    // Textures are at most 512 pixels wide and opaque ones use 16 bits per pixel.
+    LOW(512, true),
+    // Textures are at most 1024 pixels wide and opaque ones use 16 bits per pixel.
+    MEDIUM(1024, true),
+    // Textures are loaded at full resolution, with 32 bits per pixel.
+    HIGH(Integer.MAX_VALUE, false);
+
+    private static final String TAG = "TextureQuality";
+    private final static String SELECTED = "Texture quality: ";
+    private final static String SPACE = " ";
+    // Key of the setting, and name of the intent extra that changes it.
+    final static String SETTING_KEY = "texture_quality";
+    private final static String AUTO = "auto";
+
+    // Thresholds of the automatic choice. Devices sold with 2 GB or 3 GB of RAM report a bit less.
+    private static final long LOW_MEMORY_BYTES = 2560L * 1024 * 1024;
+    private static final long MEDIUM_MEMORY_BYTES = 3584L * 1024 * 1024;
+    private static final int MEDIUM_MEMORY_CLASS = 192;
+    private static final int HIGH_SCREEN_SIZE = 1920;
+
+    private static TextureQuality current;
+
+    private final int mMaxSize;
+    private final boolean mRgb565;
+
+    /**
+     * Constructor.
+     *
+     * @param maxSize The maximum width and height of the textures, in pixels.
+     * @param rgb565  True if opaque textures are decoded with 16 bits per pixel.
+     */
+    TextureQuality(int maxSize, boolean rgb565) {
+        mMaxSize = maxSize;
+        mRgb565 = rgb565;
+    }
+
+    /**
+     * @return The maximum width and height of the textures, in pixels.
+     */
+    public int getMaxSize() {
+        return mMaxSize;
+    }
+
+    /**
+     * @return True if opaque textures are decoded as RGB_565, false if they are decoded as ARGB_8888.
+     */
+    public boolean useRgb565() {
+        return mRgb565;
+    }
+
+    /**
+     * Gets the tier to use: the one saved in the settings or, if none, the one that fits the device.
+     * It can be called on any thread; the result is computed once.
+     *
+     * @param context The current application context.
+     * @return The texture quality tier.
+     */
+    synchronized public static TextureQuality get(Context context) {
+        if (current == null) {
+            String setting = getPreferences(context).getString(SETTING_KEY, AUTO);
+            try {
+                current = AUTO.equals(setting) ? detect(context) : valueOf(setting);
+            } catch (IllegalArgumentException e) {
+                current = detect(context);
+            }
+            Log.i(TAG, SELECTED + current + SPACE + setting);
+        }
+        return current;
+    }
+
+    /**
+     * Saves the tier chosen by the player. It is used by the textures loaded from now on.
+     *
+     * @param context The current application context.
+     * @param setting The name of a tier in any case, or "auto" to let the device choose.
+     * @throws IllegalArgumentException if the setting is not valid.
+     */
+    synchronized public static void setPreferred(Context context, String setting) {
+        String value = setting.toUpperCase(Locale.ROOT);
+        if (AUTO.equalsIgnoreCase(setting))
+            value = AUTO;
+        else
+            valueOf(value);
+        getPreferences(context).edit().putString(SETTING_KEY, value).apply();
+        current = null;
+    }
+
+    /**
+     * Chooses the tier that fits the device: low-memory devices get the lowest tier, while the
+     * highest one needs plenty of memory and a screen whose resolution can show the details.
+     *
+     * @param context The current application context.
+     * @return The texture quality tier.
+     */
+    private static TextureQuality detect(Context context) {
+        ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+
+        if (activityManager.isLowRamDevice() || memoryInfo.totalMem < LOW_MEMORY_BYTES)
+            return LOW;
+
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int screenSize = Math.max(metrics.widthPixels, metrics.heightPixels);
+        if (memoryInfo.totalMem < MEDIUM_MEMORY_BYTES || activityManager.getMemoryClass() < MEDIUM_MEMORY_CLASS
+                || screenSize < HIGH_SCREEN_SIZE)
+            return MEDIUM;
+        return HIGH;
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences(context.getString(R.string.settings_preferences), Context.MODE_PRIVATE);
+    }
+}
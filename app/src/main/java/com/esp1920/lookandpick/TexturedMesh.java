@@ -1,89 +1,233 @@
 package com.esp1920.lookandpick;
 
-import android.content.Context;
 import android.opengl.GLES20;
+import android.opengl.GLES30;
 
-import de.javagl.obj.Obj;
-import de.javagl.obj.ObjData;
-import de.javagl.obj.ObjReader;
-import de.javagl.obj.ObjUtils;
-
-import java.io.IOException;
-import java.io.InputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
-import java.nio.ShortBuffer;
+import static com.esp1920.lookandpick.MeshData.POSITION_SIZE;
+import static com.esp1920.lookandpick.MeshData.QUANTIZED_UV_OFFSET;
+import static com.esp1920.lookandpick.MeshData.SHORT_INDEX_SIZE;
+import static com.esp1920.lookandpick.MeshData.UV_SIZE;
 
 /**
  * This class has been written by Google and renders an object loaded from an OBJ file.
  * It is taken from gvr-android-sdk-1.200 project, more precisely from sdk-hellovr sample.
+ * <p>
+ * The mesh data is loaded by {@link MeshData}; this class uploads it to a {@link MeshArena},
+ * so it must be created and deleted on the GL thread. The CPU-side buffers are not referenced after the upload.
+ * A mesh too large for 16-bit indices is drawn as several sub-meshes, each with its own vertex offset.
+ * All the levels of detail of the mesh are uploaded, and the caller chooses which one to draw.
+ * Quantized vertices are given to the shader as normalized values, which it decodes with the
+ * u_PositionScale and u_PositionOffset uniforms set by {@link #draw(int, int, int)}.
+ * Where supported, the attributes of each sub-mesh are stored in a vertex array object, so that
+ * drawing it only needs to bind that; otherwise they are set through {@link GlState} at each draw.
+ * </p>
  */
 /* package */ class TexturedMesh {
     private static final String TAG = "TexturedMesh";
 
-    private final FloatBuffer vertices;
-    private final FloatBuffer uv;
-    private final ShortBuffer indices;
+    private final MeshArena arena;
+    private final Level[] levels;
+    private final float radius;
     private final int positionAttrib;
     private final int uvAttrib;
 
     /**
-     * Creates the polygon mesh from an .obj file.
+     * Creates the polygon mesh and stores it in GPU memory.
      *
-     * @param context        The context for loading the .obj file.
-     * @param objFilePath    The path to the .obj file.
+     * @param data           The vertex and index data of the mesh.
      * @param positionAttrib The position attribute in the shader.
      * @param uvAttrib       The UV attribute in the shader.
-     * @throws IOException if unable to find file path.
+     * @param arena          The arena where the mesh is stored in GPU memory.
      */
-    public TexturedMesh(Context context, String objFilePath, int positionAttrib, int uvAttrib)
-            throws IOException {
-        // Gets renderable obj from .obj file.
-        InputStream objInputStream = context.getAssets().open(objFilePath);
-        Obj obj = ObjUtils.convertToRenderable(ObjReader.read(objInputStream));
-        objInputStream.close();
-
-        // Gets vertex indices of the faces of the obj (3 vertices for each face: triangles).
-        IntBuffer intIndices = ObjData.getFaceVertexIndices(obj, 3);
-
-        vertices = ObjData.getVertices(obj);
-        uv = ObjData.getTexCoords(obj, 2);
-
-        // Converts int indices to shorts (GLES doesn't support int indices).
-        indices = ByteBuffer.allocateDirect(2 * intIndices.limit())
-                .order(ByteOrder.nativeOrder())
-                .asShortBuffer();
-        while (intIndices.hasRemaining()) {
-            indices.put((short) intIndices.get());
+    public TexturedMesh(MeshData data, int positionAttrib, int uvAttrib, MeshArena arena) {
+        this.arena = arena;
+        levels = new Level[data.getLevelCount()];
+        this.positionAttrib = positionAttrib;
+        this.uvAttrib = uvAttrib;
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new Level(data.getLevel(i), arena);
+            if (GlState.hasVertexArrays())
+                createVertexArrays(levels[i]);
         }
+        radius = data.getRadius();
+    }
 
-        // Makes buffer ready for reading the data it contains, sets the position to zero.
-        indices.rewind();
+    /**
+     * A level of detail of the mesh, stored in the arena.
+     */
+    private static class Level {
+        final MeshArena.Allocation allocation;
+        // Byte offsets of the first vertex and of the first index of each sub-mesh, and its number of indices.
+        final int[] vertexOffsets;
+        final int[] indexOffsets;
+        final int[] indexCounts;
+        final boolean quantized;
+        final int vertexStride;
+        final float[] positionScale;
+        final float[] positionOffset;
+        // Vertex array object of each sub-mesh, or null if they are not supported.
+        int[] vertexArrays;
+
+        Level(MeshData data, MeshArena arena) {
+            allocation = arena.upload(data.getVertices(), data.getVertices().limit(),
+                    data.getIndices(), data.getIndices().limit() * SHORT_INDEX_SIZE);
+            quantized = data.isQuantized();
+            vertexStride = data.getVertexStride();
+            positionScale = data.getPositionScale();
+            positionOffset = data.getPositionOffset();
+
+            int subMeshCount = data.getSubMeshCount();
+            vertexOffsets = new int[subMeshCount];
+            indexOffsets = new int[subMeshCount];
+            indexCounts = new int[subMeshCount];
+            int vertexOffset = allocation.vertexOffset;
+            int indexOffset = allocation.indexOffset;
+            for (int i = 0; i < subMeshCount; i++) {
+                vertexOffsets[i] = vertexOffset;
+                indexOffsets[i] = indexOffset;
+                indexCounts[i] = data.getSubMeshIndexCount(i);
+                vertexOffset += data.getSubMeshVertexCount(i) * vertexStride;
+                indexOffset += indexCounts[i] * SHORT_INDEX_SIZE;
+            }
+        }
+    }
 
-        this.positionAttrib = positionAttrib;
-        this.uvAttrib = uvAttrib;
+    /**
+     * @return The number of levels of detail of the mesh, including the full one.
+     */
+    public int getLevelCount() {
+        return levels.length;
     }
 
     /**
-     * Draws the mesh. Before this is called, u_MVP should be set with glUniformMatrix4fv(), and a
-     * texture should be bound to GL_TEXTURE0.
+     * @return The radius of the sphere, centered in the origin of the mesh, which contains it.
      */
-    public void draw() {
-        GLES20.glEnableVertexAttribArray(positionAttrib);
+    public float getRadius() {
+        return radius;
+    }
 
-        // Specifies source and format of vertex attributes.
-        // The first param (positionAttrib) is the source buffer.
-        // The last one (vertices) is the offset of the first attribute in positionAttrib.
-        GLES20.glVertexAttribPointer(positionAttrib, 3, GLES20.GL_FLOAT, false, 0, vertices);
+    /**
+     * Draws a level of detail of the mesh. Before this is called, u_ViewProjection and u_Translation
+     * should be set, and a texture should be bound to GL_TEXTURE0.
+     *
+     * @param level               The level of detail, from 0 (the full mesh); levels the mesh does not
+     *                            have are replaced by its least detailed one.
+     * @param positionScaleParam  The u_PositionScale uniform of the current program.
+     * @param positionOffsetParam The u_PositionOffset uniform of the current program.
+     */
+    public void draw(int level, int positionScaleParam, int positionOffsetParam) {
+        Level lod = levels[Math.min(level, levels.length - 1)];
+        int[] indexOffsets = lod.indexOffsets;
+        int[] indexCounts = lod.indexCounts;
+
+        GLES20.glUniform3fv(positionScaleParam, 1, lod.positionScale, 0);
+        GLES20.glUniform3fv(positionOffsetParam, 1, lod.positionOffset, 0);
+
+        for (int i = 0; i < indexCounts.length; i++) {
+            if (lod.vertexArrays != null)
+                GlState.bindVertexArray(lod.vertexArrays[i]);
+            else
+                setAttributes(lod, i);
+
+            // Draws the triangles of the sub-mesh.
+            GLES20.glDrawElements(GLES20.GL_TRIANGLES, indexCounts[i], GLES20.GL_UNSIGNED_SHORT, indexOffsets[i]);
+        }
+    }
 
-        GLES20.glEnableVertexAttribArray(uvAttrib);
+    /**
+     * Draws several instances of a level of detail of the mesh with a single draw call per sub-mesh.
+     * It needs an OpenGL ES 3.0 context and a program which reads the per-instance attributes of
+     * {@link InstanceBuffer}. A texture should be bound to GL_TEXTURE0.
+     *
+     * @param level               The level of detail, as in {@link #draw(int, int, int)}.
+     * @param positionScaleParam  The u_PositionScale uniform of the current program.
+     * @param positionOffsetParam The u_PositionOffset uniform of the current program.
+     * @param instances           The uploaded instances.
+     * @param firstInstance       The index of the first instance to draw.
+     * @param instanceCount       The number of instances to draw.
+     */
+    public void drawInstanced(int level, int positionScaleParam, int positionOffsetParam,
+                              InstanceBuffer instances, int firstInstance, int instanceCount) {
+        Level lod = levels[Math.min(level, levels.length - 1)];
+        int[] indexOffsets = lod.indexOffsets;
+        int[] indexCounts = lod.indexCounts;
+
+        GLES20.glUniform3fv(positionScaleParam, 1, lod.positionScale, 0);
+        GLES20.glUniform3fv(positionOffsetParam, 1, lod.positionOffset, 0);
+
+        for (int i = 0; i < indexCounts.length; i++) {
+            if (lod.vertexArrays != null)
+                GlState.bindVertexArray(lod.vertexArrays[i]);
+            else
+                setAttributes(lod, i);
+            instances.setAttributes(firstInstance);
+
+            GLES30.glDrawElementsInstanced(GLES20.GL_TRIANGLES, indexCounts[i], GLES20.GL_UNSIGNED_SHORT,
+                    indexOffsets[i], instanceCount);
+        }
+    }
+
+    /**
+     * Stores the attributes of each sub-mesh of a level in a vertex array object.
+     *
+     * @param level The level.
+     */
+    private void createVertexArrays(Level level) {
+        level.vertexArrays = new int[level.indexCounts.length];
+        GLES30.glGenVertexArrays(level.vertexArrays.length, level.vertexArrays, 0);
+        for (int i = 0; i < level.vertexArrays.length; i++) {
+            GlState.bindVertexArray(level.vertexArrays[i]);
+            setAttributes(level, i);
+        }
+        // Unbinds the last vertex array object, so that it is not modified by the next buffer bindings.
+        GlState.bindVertexArray(0);
+        Util.checkGlError("createVertexArrays");
+    }
+
+    /**
+     * Binds the buffers of a sub-mesh and specifies the format of its vertex attributes.
+     *
+     * @param level   The level of detail.
+     * @param subMesh The sub-mesh of the level.
+     */
+    private void setAttributes(Level level, int subMesh) {
+        MeshArena.Allocation allocation = level.allocation;
+        int vertexOffset = level.vertexOffsets[subMesh];
 
-        // Specifies source and format of attributes regarding UV coordinates.
-        GLES20.glVertexAttribPointer(uvAttrib, 2, GLES20.GL_FLOAT, false, 0, uv);
+        GlState.bindBuffer(GLES20.GL_ARRAY_BUFFER, allocation.vertexBuffer);
+        GlState.enableVertexAttribArray(positionAttrib);
+        GlState.enableVertexAttribArray(uvAttrib);
+        GlState.bindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, allocation.indexBuffer);
+
+        // Specifies source and format of vertex attributes.
+        // The first param (positionAttrib) is the attribute to set.
+        // The last one is the offset of the first position of the sub-mesh in the bound buffer object;
+        // consecutive vertices are vertexStride bytes apart.
+        // Quantized attributes are normalized: the shader reads them between 0 and 1.
+        if (level.quantized) {
+            GlState.vertexAttribPointer(positionAttrib, POSITION_SIZE, GLES20.GL_UNSIGNED_SHORT, true,
+                    level.vertexStride, vertexOffset);
+            GlState.vertexAttribPointer(uvAttrib, UV_SIZE, GLES20.GL_UNSIGNED_SHORT, true,
+                    level.vertexStride, vertexOffset + QUANTIZED_UV_OFFSET);
+        } else {
+            GlState.vertexAttribPointer(positionAttrib, POSITION_SIZE, GLES20.GL_FLOAT, false,
+                    level.vertexStride, vertexOffset);
+            // Specifies source and format of attributes regarding UV coordinates, which follow the position.
+            GlState.vertexAttribPointer(uvAttrib, UV_SIZE, GLES20.GL_FLOAT, false,
+                    level.vertexStride, vertexOffset + POSITION_SIZE * 4);
+        }
+    }
 
-        // Draws the triangle mesh.
-        GLES20.glDrawElements(GLES20.GL_TRIANGLES, indices.limit(), GLES20.GL_UNSIGNED_SHORT, indices);
+    /**
+     * Frees the GPU memory used by the mesh, which can not be drawn anymore.
+     */
+    public void delete() {
+        for (Level level : levels) {
+            arena.free(level.allocation);
+            if (level.vertexArrays != null)
+                GLES30.glDeleteVertexArrays(level.vertexArrays.length, level.vertexArrays, 0);
+        }
+        // A deleted vertex array object may have been bound.
+        GlState.invalidate();
     }
 }
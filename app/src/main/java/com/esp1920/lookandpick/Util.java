@@ -1,7 +1,6 @@
 package com.esp1920.lookandpick;
 
 import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.text.TextUtils;
 
 import static android.opengl.GLU.gluErrorString;
@@ -57,9 +56,11 @@ import static android.opengl.GLU.gluErrorString;
      *
      * @param vertexCode   GLES20 vertex shader program.
      * @param fragmentCode GLES20 fragment shader program.
+     * @param attributes   Vertex attributes bound to locations 0, 1, ... in order, so that programs
+     *                     sharing them can draw the same meshes.
      * @return GLES20 program id.
      */
-    public static int compileProgram(String[] vertexCode, String[] fragmentCode) {
+    public static int compileProgram(String[] vertexCode, String[] fragmentCode, String... attributes) {
         checkGlError(START_COMPILE);
 
         // Prepares vertex shader.
@@ -78,6 +79,9 @@ import static android.opengl.GLU.gluErrorString;
         int program = GLES20.glCreateProgram();
         GLES20.glAttachShader(program, vertexShader);
         GLES20.glAttachShader(program, fragmentShader);
+        for (int i = 0; i < attributes.length; i++) {
+            GLES20.glBindAttribLocation(program, i, attributes[i]);
+        }
 
         // Links program and checks for errors.
         GLES20.glLinkProgram(program);
@@ -93,40 +97,4 @@ import static android.opengl.GLU.gluErrorString;
 
         return program;
     }
-
-    /**
-     * Computes the angle between two vectors; see
-     * https://en.wikipedia.org/wiki/Vector_projection#Definitions_in_terms_of_a_and_b.
-     *
-     * @param vec1 The first vector.
-     * @param vec2 The second vector.
-     * @return The angle between vec1 and vec2, in radians.
-     */
-    public static float angleBetweenVectors(float[] vec1, float[] vec2) {
-        float cosOfAngle = dotProduct(vec1, vec2) / (vectorNorm(vec1) * vectorNorm(vec2));
-        return (float) Math.acos(Math.max(-1.0f, Math.min(1.0f, cosOfAngle)));
-    }
-
-    /**
-     * Computes the dot product between two vectors.
-     *
-     * @param vec1 A vector with 3 entries.
-     * @param vec2 A vector with 3 entries.
-     * @return The dot product between vec1 and vec2.
-     */
-    private static float dotProduct(float[] vec1, float[] vec2) {
-        return vec1[0] * vec2[0] + vec1[1] * vec2[1] + vec1[2] * vec2[2];
-    }
-
-    /**
-     * Computes the norm of a vector.
-     *
-     * @param vec A vector with 3 entries.
-     * @return The vec's norm.
-     */
-    private static float vectorNorm(float[] vec) {
-        return Matrix.length(vec[0], vec[1], vec[2]);
-    }
 }
-
-
@@ -0,0 +1,206 @@
+package com.esp1920.lookandpick;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Local unit tests of {@link GazeIndex}: the objects found by walking the grid along the gaze must be
+ * those found by testing every object, for random scenes, head poses and filters.
+ */
+public class GazeIndexTest {
+    // More objects than the index tests one by one, so that queries walk the grid.
+    private static final int GRID_OBJECTS = 1000;
+    private static final int FEW_OBJECTS = 20;
+    private static final int POSES = 2000;
+    // Objects are placed up to this distance from the center, partly outside the grid.
+    private static final float MAX_DISTANCE = MainActivity.GAZE_INDEX_HALF_EXTENT * 1.5f;
+    // The player moves up to this distance from the center.
+    private static final float MAX_EYE_DISTANCE = 2.0f;
+
+    private static final GazeIndex.Filter ALL = new GazeIndex.Filter() {
+        @Override
+        public boolean accept(int object) {
+            return true;
+        }
+    };
+
+    private final Random mRandom = new Random(1);
+
+    @Test
+    public void findMatchesLinearScanWithFewObjects() {
+        assertMatchesLinearScan(FEW_OBJECTS, ALL);
+    }
+
+    @Test
+    public void findMatchesLinearScanOnTheGrid() {
+        assertMatchesLinearScan(GRID_OBJECTS, ALL);
+    }
+
+    @Test
+    public void findOnlyReturnsAcceptedObjects() {
+        GazeIndex.Filter odd = new GazeIndex.Filter() {
+            @Override
+            public boolean accept(int object) {
+                return object % 2 == 1;
+            }
+        };
+        assertMatchesLinearScan(FEW_OBJECTS, odd);
+        assertMatchesLinearScan(GRID_OBJECTS, odd);
+    }
+
+    @Test
+    public void findFollowsMovedObjects() {
+        GazeIndex index = newIndex(GRID_OBJECTS);
+        float[] centers = place(index, GRID_OBJECTS);
+        // Moves half of the objects, across cells and in and out of the grid.
+        for (int i = 0; i < GRID_OBJECTS; i += 2) {
+            float[] center = randomPoint(MAX_DISTANCE);
+            System.arraycopy(center, 0, centers, i * 3, 3);
+            index.update(i, center[0], center[1], center[2]);
+        }
+        for (int i = 0; i < POSES; i++) {
+            float[] headView = randomHeadView();
+            assertEquals(scan(centers, headView, ALL), index.find(headView, ALL));
+        }
+    }
+
+    @Test
+    public void findIgnoresObjectsNotPlacedYet() {
+        GazeIndex index = newIndex(GRID_OBJECTS);
+        // Looking along -z from the center of the scene.
+        float[] headView = new float[16];
+        headView[0] = 1;
+        headView[5] = 1;
+        headView[10] = 1;
+        headView[15] = 1;
+        assertEquals(GazeIndex.NONE, index.find(headView, ALL));
+        index.update(7, 0, 0, -3);
+        assertEquals(7, index.find(headView, ALL));
+        // Objects behind the player are not gazed at.
+        index.update(7, 0, 0, 3);
+        assertEquals(GazeIndex.NONE, index.find(headView, ALL));
+    }
+
+    /**
+     * Places objects at random, then checks that the index and a linear scan find the same objects.
+     *
+     * @param count  The number of objects.
+     * @param filter The objects which can be picked.
+     */
+    private void assertMatchesLinearScan(int count, GazeIndex.Filter filter) {
+        GazeIndex index = newIndex(count);
+        float[] centers = place(index, count);
+        int gazed = 0;
+        for (int i = 0; i < POSES; i++) {
+            float[] headView = randomHeadView();
+            int expected = scan(centers, headView, filter);
+            assertEquals(expected, index.find(headView, filter));
+            if (expected != GazeIndex.NONE)
+                gazed++;
+        }
+        // The test is only meaningful if the gaze finds objects.
+        assertTrue(gazed > 0);
+    }
+
+    private static GazeIndex newIndex(int count) {
+        return new GazeIndex(count, MainActivity.GAZE_INDEX_HALF_EXTENT, MainActivity.GAZE_INDEX_CELL_SIZE,
+                MainActivity.ANGLE_LIMIT);
+    }
+
+    /**
+     * Places objects at random in an index.
+     *
+     * @return The centers of the objects.
+     */
+    private float[] place(GazeIndex index, int count) {
+        float[] centers = new float[count * 3];
+        for (int i = 0; i < count; i++) {
+            float[] center = randomPoint(MAX_DISTANCE);
+            System.arraycopy(center, 0, centers, i * 3, 3);
+            index.update(i, center[0], center[1], center[2]);
+        }
+        return centers;
+    }
+
+    /**
+     * @param maxDistance The largest distance from the center.
+     * @return A random point within a cube around the center of the scene.
+     */
+    private float[] randomPoint(float maxDistance) {
+        return new float[]{
+                (mRandom.nextFloat() - 0.5f) * 2 * maxDistance,
+                (mRandom.nextFloat() - 0.5f) * 2 * maxDistance,
+                (mRandom.nextFloat() - 0.5f) * 2 * maxDistance
+        };
+    }
+
+    /**
+     * @return The head view of a player at a random position, looking in a random direction: a rotation
+     * followed by a translation, in column-major order.
+     */
+    private float[] randomHeadView() {
+        // Rotation by a random unit quaternion.
+        double w = mRandom.nextGaussian();
+        double x = mRandom.nextGaussian();
+        double y = mRandom.nextGaussian();
+        double z = mRandom.nextGaussian();
+        double norm = Math.sqrt(w * w + x * x + y * y + z * z);
+        w /= norm;
+        x /= norm;
+        y /= norm;
+        z /= norm;
+        float[] m = new float[16];
+        m[0] = (float) (1 - 2 * (y * y + z * z));
+        m[1] = (float) (2 * (x * y + w * z));
+        m[2] = (float) (2 * (x * z - w * y));
+        m[4] = (float) (2 * (x * y - w * z));
+        m[5] = (float) (1 - 2 * (x * x + z * z));
+        m[6] = (float) (2 * (y * z + w * x));
+        m[8] = (float) (2 * (x * z + w * y));
+        m[9] = (float) (2 * (y * z - w * x));
+        m[10] = (float) (1 - 2 * (x * x + y * y));
+        m[15] = 1;
+
+        // The translation moves the eye, at a random point, to the origin: t = -R eye.
+        float[] eye = randomPoint(MAX_EYE_DISTANCE);
+        for (int row = 0; row < 3; row++) {
+            m[12 + row] = -(m[row] * eye[0] + m[4 + row] * eye[1] + m[8 + row] * eye[2]);
+        }
+        return m;
+    }
+
+    /**
+     * Finds the gazed-at object by testing every object, with the gaze ray computed as the index does.
+     *
+     * @param centers  The centers of the objects.
+     * @param headView The transform from the scene to the head space.
+     * @param filter   The objects which can be picked.
+     * @return The index of the object nearest to the gaze within the angle limit, or {@link GazeIndex#NONE}.
+     */
+    private static int scan(float[] centers, float[] headView, GazeIndex.Filter filter) {
+        float rayX = -(headView[0] * headView[12] + headView[1] * headView[13] + headView[2] * headView[14]);
+        float rayY = -(headView[4] * headView[12] + headView[5] * headView[13] + headView[6] * headView[14]);
+        float rayZ = -(headView[8] * headView[12] + headView[9] * headView[13] + headView[10] * headView[14]);
+        float directionX = -headView[2];
+        float directionY = -headView[6];
+        float directionZ = -headView[10];
+
+        float bestCosOfAngle = (float) Math.cos(MainActivity.ANGLE_LIMIT);
+        int best = GazeIndex.NONE;
+        for (int i = 0; i < centers.length / 3; i++) {
+            float x = centers[i * 3] - rayX;
+            float y = centers[i * 3 + 1] - rayY;
+            float z = centers[i * 3 + 2] - rayZ;
+            float cosOfAngle = (x * directionX + y * directionY + z * directionZ) / (float) Math.sqrt(x * x + y * y + z * z);
+            if (cosOfAngle > bestCosOfAngle && filter.accept(i)) {
+                bestCosOfAngle = cosOfAngle;
+                best = i;
+            }
+        }
+        return best;
+    }
+}
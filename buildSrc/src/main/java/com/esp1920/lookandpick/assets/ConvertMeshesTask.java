@@ -0,0 +1,159 @@
+package com.esp1920.lookandpick.assets;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileTreeElement;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.file.FileVisitor;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.util.PatternSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This task converts every .obj model found in a source directory into a packed binary mesh
+ * (see {@link MeshConverter}), keeping the same relative path and replacing the extension.
+ * The output directory is meant to be added to the app's assets, so that each packed mesh is
+ * found next to the .obj it comes from.
+ * Each model also gets {@link #getLodLevels()} reduced levels of detail, unless it matches one of the
+ * {@link #getLodExcludes()} patterns.
+ * The average cache miss ratio of each model, before and after the optimization of its vertex order,
+ * is printed to the build output.
+ */
+public class ConvertMeshesTask extends DefaultTask {
+    private File sourceDir;
+    private File outputDir;
+    private int lodLevels = 2;
+    private boolean quantize = true;
+    private List<String> lodExcludes = new ArrayList<>();
+
+    /**
+     * @return The directory that contains the .obj models.
+     */
+    @Internal
+    public File getSourceDir() {
+        return sourceDir;
+    }
+
+    /**
+     * @param sourceDir The directory that contains the .obj models.
+     */
+    public void setSourceDir(File sourceDir) {
+        this.sourceDir = sourceDir;
+    }
+
+    /**
+     * @return The .obj models to convert.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileTree getObjFiles() {
+        return getProject().fileTree(sourceDir).matching(
+                pattern -> pattern.include("**/*" + MeshConverter.OBJ_EXTENSION));
+    }
+
+    /**
+     * @return The directory where packed meshes are written.
+     */
+    @OutputDirectory
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * @param outputDir The directory where packed meshes are written.
+     */
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    /**
+     * @return The number of reduced levels of detail written for each model.
+     */
+    @Input
+    public int getLodLevels() {
+        return lodLevels;
+    }
+
+    /**
+     * @param lodLevels The number of reduced levels of detail written for each model.
+     */
+    public void setLodLevels(int lodLevels) {
+        this.lodLevels = lodLevels;
+    }
+
+    /**
+     * @return True if vertices are stored as normalized shorts, false if they are stored as floats.
+     */
+    @Input
+    public boolean getQuantize() {
+        return quantize;
+    }
+
+    /**
+     * @param quantize True to store vertices as normalized shorts, false to store them as floats.
+     */
+    public void setQuantize(boolean quantize) {
+        this.quantize = quantize;
+    }
+
+    /**
+     * @return The patterns, relative to the source directory, of the models that get no levels of detail.
+     */
+    @Input
+    public List<String> getLodExcludes() {
+        return lodExcludes;
+    }
+
+    /**
+     * @param lodExcludes The patterns, relative to the source directory, of the models that get no
+     *                    levels of detail.
+     */
+    public void setLodExcludes(List<String> lodExcludes) {
+        this.lodExcludes = lodExcludes;
+    }
+
+    @TaskAction
+    public void convert() {
+        getProject().delete(outputDir);
+        Spec<FileTreeElement> excluded = new PatternSet().include(lodExcludes).getAsSpec();
+        getObjFiles().visit(new FileVisitor() {
+            @Override
+            public void visitDir(FileVisitDetails details) {
+            }
+
+            @Override
+            public void visitFile(FileVisitDetails details) {
+                String relativePath = details.getRelativePath().getPathString();
+                String meshPath = relativePath.substring(0,
+                        relativePath.length() - MeshConverter.OBJ_EXTENSION.length())
+                        + MeshConverter.MESH_EXTENSION;
+                File meshFile = new File(outputDir, meshPath);
+                try {
+                    int levels = excluded.isSatisfiedBy(details) ? 0 : lodLevels;
+                    MeshConverter.Result result = MeshConverter.convert(details.getFile(), meshFile, levels,
+                            quantize);
+                    getLogger().info("Converted {} ({} triangles per level, {} vertices)", relativePath,
+                            Arrays.toString(result.triangleCounts), result.quantized ? "quantized" : "float");
+                    getLogger().lifecycle(String.format(Locale.ROOT, "%s: ACMR %.3f -> %.3f", relativePath,
+                            result.originalAcmr, result.optimizedAcmr));
+                } catch (IOException e) {
+                    throw new GradleException("Unable to convert " + relativePath, e);
+                }
+            }
+        });
+    }
+}
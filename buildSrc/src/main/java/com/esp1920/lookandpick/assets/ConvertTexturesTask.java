@@ -0,0 +1,114 @@
+package com.esp1920.lookandpick.assets;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileVisitDetails;
+import org.gradle.api.file.FileVisitor;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.TaskAction;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * This task compresses every .png image found in a source directory into KTX textures
+ * (see {@link TextureConverter}), keeping the same relative path.
+ * The output directory is meant to be added to the app's assets, so that each texture is found
+ * next to the image it comes from.
+ */
+public class ConvertTexturesTask extends DefaultTask {
+    private File sourceDir;
+    private File outputDir;
+    private String astcenc;
+
+    /**
+     * @return The directory that contains the images.
+     */
+    @Internal
+    public File getSourceDir() {
+        return sourceDir;
+    }
+
+    /**
+     * @param sourceDir The directory that contains the images.
+     */
+    public void setSourceDir(File sourceDir) {
+        this.sourceDir = sourceDir;
+    }
+
+    /**
+     * @return The images to convert.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileTree getPngFiles() {
+        return getProject().fileTree(sourceDir).matching(
+                pattern -> pattern.include("**/*" + TextureConverter.PNG_EXTENSION));
+    }
+
+    /**
+     * @return The path to the astcenc executable, or null if ASTC textures are not generated.
+     */
+    @Input
+    @Optional
+    public String getAstcenc() {
+        return astcenc;
+    }
+
+    /**
+     * @param astcenc The path to the astcenc executable, or null to skip ASTC textures.
+     */
+    public void setAstcenc(String astcenc) {
+        this.astcenc = astcenc;
+    }
+
+    /**
+     * @return The directory where textures are written.
+     */
+    @OutputDirectory
+    public File getOutputDir() {
+        return outputDir;
+    }
+
+    /**
+     * @param outputDir The directory where textures are written.
+     */
+    public void setOutputDir(File outputDir) {
+        this.outputDir = outputDir;
+    }
+
+    @TaskAction
+    public void convert() {
+        getProject().delete(outputDir);
+        final File astcencFile = astcenc != null ? new File(astcenc) : null;
+        if (astcencFile == null)
+            getLogger().lifecycle("astcenc not set: ASTC textures are not generated");
+
+        getPngFiles().visit(new FileVisitor() {
+            @Override
+            public void visitDir(FileVisitDetails details) {
+            }
+
+            @Override
+            public void visitFile(FileVisitDetails details) {
+                String relativePath = details.getRelativePath().getPathString();
+                String basePath = relativePath.substring(0,
+                        relativePath.length() - TextureConverter.PNG_EXTENSION.length());
+                try {
+                    int written = TextureConverter.convert(details.getFile(), new File(outputDir, basePath),
+                            astcencFile);
+                    getLogger().info("Converted {} ({} textures)", relativePath, written);
+                } catch (IOException e) {
+                    throw new GradleException("Unable to convert " + relativePath, e);
+                }
+            }
+        });
+    }
+}
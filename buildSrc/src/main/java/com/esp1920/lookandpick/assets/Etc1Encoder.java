@@ -0,0 +1,229 @@
+package com.esp1920.lookandpick.assets;
+
+import java.util.stream.IntStream;
+
+/**
+ * This class compresses RGB images in the ETC1 format (OES_compressed_ETC1_RGB8_texture).
+ * <p>
+ * For each 4x4 block, both sub-block orientations are tried in individual and differential mode,
+ * with the average color of each sub-block as base color; the modifier table and the pixel
+ * indices that minimize the squared error are then chosen for each sub-block.
+ * The encoder never produces the differential overflow that ETC2 reinterprets, so its output is
+ * also a valid ETC2 RGB8 texture.
+ * </p>
+ */
+public class Etc1Encoder {
+    public static final int GL_ETC1_RGB8_OES = 0x8D64;
+    public static final int BLOCK_SIZE = 8;
+
+    // Intensity modifiers of each table: a pixel adds -large, -small, +small or +large to its base color.
+    private static final int[][] MODIFIERS = {
+            {2, 8}, {5, 17}, {9, 29}, {13, 42}, {18, 60}, {24, 80}, {33, 106}, {47, 183}
+    };
+
+    /**
+     * Class only contains static methods.
+     */
+    private Etc1Encoder() {
+    }
+
+    /**
+     * @param width  The image width.
+     * @param height The image height.
+     * @return The size in bytes of the compressed image.
+     */
+    public static int compressedSize(int width, int height) {
+        return ((width + 3) / 4) * ((height + 3) / 4) * BLOCK_SIZE;
+    }
+
+    /**
+     * Compresses an image. Blocks are stored from left to right and from top to bottom, as expected
+     * by glCompressedTexImage2D.
+     *
+     * @param rgb    The pixels, as 0xRRGGBB values in row order.
+     * @param width  The image width.
+     * @param height The image height.
+     * @return The compressed image.
+     */
+    public static byte[] encode(final int[] rgb, final int width, final int height) {
+        final int blocksX = (width + 3) / 4;
+        final int blocksY = (height + 3) / 4;
+        final byte[] out = new byte[blocksX * blocksY * BLOCK_SIZE];
+
+        IntStream.range(0, blocksY).parallel().forEach(by -> {
+            int[] block = new int[16 * 3];
+            for (int bx = 0; bx < blocksX; bx++) {
+                // Reads the block in column order (pixel (x, y) is at x * 4 + y), as ETC1 indexes it.
+                // Pixels outside the image repeat the last row or column.
+                for (int x = 0; x < 4; x++) {
+                    for (int y = 0; y < 4; y++) {
+                        int px = Math.min(bx * 4 + x, width - 1);
+                        int py = Math.min(by * 4 + y, height - 1);
+                        int color = rgb[py * width + px];
+                        int i = (x * 4 + y) * 3;
+                        block[i] = (color >> 16) & 0xFF;
+                        block[i + 1] = (color >> 8) & 0xFF;
+                        block[i + 2] = color & 0xFF;
+                    }
+                }
+                long bits = encodeBlock(block);
+                int offset = (by * blocksX + bx) * BLOCK_SIZE;
+                for (int b = 0; b < BLOCK_SIZE; b++) {
+                    out[offset + b] = (byte) (bits >>> (56 - 8 * b));
+                }
+            }
+        });
+        return out;
+    }
+
+    /**
+     * Compresses a 4x4 block.
+     *
+     * @param block The 16 pixels in column order, as r, g, b triplets.
+     * @return The 64 bits of the compressed block.
+     */
+    private static long encodeBlock(int[] block) {
+        long best = 0;
+        long bestError = Long.MAX_VALUE;
+        for (int flip = 0; flip < 2; flip++) {
+            float[] average1 = average(block, flip, 0);
+            float[] average2 = average(block, flip, 1);
+
+            for (int diff = 0; diff < 2; diff++) {
+                int[] base1 = new int[3];
+                int[] base2 = new int[3];
+                long header = ((long) diff << 33) | ((long) flip << 32);
+                boolean valid = true;
+
+                for (int c = 0; c < 3; c++) {
+                    if (diff == 0) {
+                        int q1 = quantize(average1[c], 15);
+                        int q2 = quantize(average2[c], 15);
+                        base1[c] = (q1 << 4) | q1;
+                        base2[c] = (q2 << 4) | q2;
+                        header |= ((long) q1 << (60 - 8 * c)) | ((long) q2 << (56 - 8 * c));
+                    } else {
+                        int q1 = quantize(average1[c], 31);
+                        int q2 = quantize(average2[c], 31);
+                        int delta = q2 - q1;
+                        if (delta < -4 || delta > 3) {
+                            valid = false;
+                            break;
+                        }
+                        base1[c] = (q1 << 3) | (q1 >> 2);
+                        base2[c] = (q2 << 3) | (q2 >> 2);
+                        header |= ((long) q1 << (59 - 8 * c)) | ((long) (delta & 0x7) << (56 - 8 * c));
+                    }
+                }
+                if (!valid)
+                    continue;
+
+                long[] sub1 = encodeSubBlock(block, flip, 0, base1);
+                long[] sub2 = encodeSubBlock(block, flip, 1, base2);
+                long error = sub1[0] + sub2[0];
+                if (error < bestError) {
+                    bestError = error;
+                    best = header | (sub1[1] << 37) | (sub2[1] << 34) | sub1[2] | sub2[2];
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Chooses the modifier table and the pixel indices of a sub-block.
+     *
+     * @param block    The 16 pixels in column order.
+     * @param flip     0 for two 2x4 sub-blocks side by side, 1 for two 4x2 sub-blocks one above the other.
+     * @param subBlock The sub-block, 0 or 1.
+     * @param base     The base color of the sub-block.
+     * @return The squared error, the table index and the pixel index bits.
+     */
+    private static long[] encodeSubBlock(int[] block, int flip, int subBlock, int[] base) {
+        long bestError = Long.MAX_VALUE;
+        long bestTable = 0;
+        long bestIndices = 0;
+        for (int table = 0; table < MODIFIERS.length; table++) {
+            int[] modifiers = {MODIFIERS[table][0], MODIFIERS[table][1], -MODIFIERS[table][0], -MODIFIERS[table][1]};
+            long error = 0;
+            long indices = 0;
+            for (int pixel = 0; pixel < 16; pixel++) {
+                if (subBlockOf(pixel, flip) != subBlock)
+                    continue;
+
+                int bestPixelError = Integer.MAX_VALUE;
+                int bestIndex = 0;
+                for (int index = 0; index < 4; index++) {
+                    int pixelError = 0;
+                    for (int c = 0; c < 3; c++) {
+                        int value = clamp(base[c] + modifiers[index]);
+                        int d = value - block[pixel * 3 + c];
+                        pixelError += d * d;
+                    }
+                    if (pixelError < bestPixelError) {
+                        bestPixelError = pixelError;
+                        bestIndex = index;
+                    }
+                }
+                error += bestPixelError;
+                // The most significant bit of each index is in the upper half, the other in the lower one.
+                indices |= ((long) (bestIndex >> 1) << (16 + pixel)) | ((long) (bestIndex & 1) << pixel);
+            }
+            if (error < bestError) {
+                bestError = error;
+                bestTable = table;
+                bestIndices = indices;
+            }
+        }
+        return new long[]{bestError, bestTable, bestIndices};
+    }
+
+    /**
+     * @param block    The 16 pixels in column order.
+     * @param flip     The sub-block orientation.
+     * @param subBlock The sub-block, 0 or 1.
+     * @return The average color of the sub-block.
+     */
+    private static float[] average(int[] block, int flip, int subBlock) {
+        float[] sum = new float[3];
+        for (int pixel = 0; pixel < 16; pixel++) {
+            if (subBlockOf(pixel, flip) == subBlock) {
+                for (int c = 0; c < 3; c++) {
+                    sum[c] += block[pixel * 3 + c];
+                }
+            }
+        }
+        for (int c = 0; c < 3; c++) {
+            sum[c] /= 8;
+        }
+        return sum;
+    }
+
+    /**
+     * @param pixel The pixel index in column order.
+     * @param flip  The sub-block orientation.
+     * @return The sub-block the pixel belongs to.
+     */
+    private static int subBlockOf(int pixel, int flip) {
+        int x = pixel / 4;
+        int y = pixel % 4;
+        return flip == 0 ? x / 2 : y / 2;
+    }
+
+    /**
+     * @param value A color channel, from 0 to 255.
+     * @param max   The largest quantized value.
+     * @return The nearest quantized value.
+     */
+    private static int quantize(float value, int max) {
+        return Math.round(value * max / 255f);
+    }
+
+    /**
+     * @param value A color channel.
+     * @return The channel clamped from 0 to 255.
+     */
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+}
@@ -0,0 +1,85 @@
+package com.esp1920.lookandpick.assets;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * This class writes compressed 2D textures, with their mip chain, in the KTX 1.1 container format
+ * (https://www.khronos.org/opengles/sdk/tools/KTX/file_format_spec/).
+ */
+public class KtxWriter {
+    private static final byte[] IDENTIFIER = {
+            (byte) 0xAB, 'K', 'T', 'X', ' ', '1', '1', (byte) 0xBB, '\r', '\n', 0x1A, '\n'
+    };
+    private static final int ENDIANNESS = 0x04030201;
+    private static final int HEADER_SIZE = IDENTIFIER.length + 13 * 4;
+
+    /**
+     * Class only contains static methods.
+     */
+    private KtxWriter() {
+    }
+
+    /**
+     * Writes a KTX file.
+     *
+     * @param file                The file to write.
+     * @param glInternalFormat    The compressed format of the levels.
+     * @param glBaseInternalFormat The base format (GL_RGB or GL_RGBA).
+     * @param width               The width of the first level.
+     * @param height              The height of the first level.
+     * @param levels              The compressed levels, from the largest to the smallest.
+     * @throws IOException if the file can not be written.
+     */
+    public static void write(File file, int glInternalFormat, int glBaseInternalFormat, int width, int height,
+                             List<byte[]> levels) throws IOException {
+        int size = HEADER_SIZE;
+        for (byte[] level : levels) {
+            size += 4 + padded(level.length);
+        }
+
+        ByteBuffer ktx = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        ktx.put(IDENTIFIER);
+        ktx.putInt(ENDIANNESS);
+        ktx.putInt(0);                  // glType: 0 for compressed textures.
+        ktx.putInt(1);                  // glTypeSize.
+        ktx.putInt(0);                  // glFormat: 0 for compressed textures.
+        ktx.putInt(glInternalFormat);
+        ktx.putInt(glBaseInternalFormat);
+        ktx.putInt(width);
+        ktx.putInt(height);
+        ktx.putInt(0);                  // pixelDepth: 0 for 2D textures.
+        ktx.putInt(0);                  // numberOfArrayElements.
+        ktx.putInt(1);                  // numberOfFaces.
+        ktx.putInt(levels.size());
+        ktx.putInt(0);                  // bytesOfKeyValueData.
+
+        for (byte[] level : levels) {
+            ktx.putInt(level.length);
+            ktx.put(level);
+            ktx.position(ktx.position() + padded(level.length) - level.length);
+        }
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(ktx.array());
+        }
+    }
+
+    /**
+     * @param length A size in bytes.
+     * @return The size rounded up to a multiple of 4, as each level is padded in the file.
+     */
+    private static int padded(int length) {
+        return (length + 3) & ~3;
+    }
+}
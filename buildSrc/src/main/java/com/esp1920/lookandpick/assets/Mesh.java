@@ -0,0 +1,26 @@
+package com.esp1920.lookandpick.assets;
+
+/**
+ * This class holds an indexed triangle mesh while it is processed by the asset pipeline.
+ * Vertex {@code i} has its position at {@code positions[i * 3]} and its texture coordinates at
+ * {@code uvs[i * 2]}; every three indices make up a triangle.
+ */
+public class Mesh {
+    public final float[] positions;
+    public final float[] uvs;
+    public final int[] indices;
+
+    public Mesh(float[] positions, float[] uvs, int[] indices) {
+        this.positions = positions;
+        this.uvs = uvs;
+        this.indices = indices;
+    }
+
+    public int getVertexCount() {
+        return positions.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return indices.length / 3;
+    }
+}
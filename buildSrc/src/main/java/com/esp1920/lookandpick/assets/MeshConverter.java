@@ -0,0 +1,412 @@
+package com.esp1920.lookandpick.assets;
+
+import de.javagl.obj.Obj;
+import de.javagl.obj.ObjData;
+import de.javagl.obj.ObjReader;
+import de.javagl.obj.ObjUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class converts a Wavefront .obj model into the packed binary mesh format read by
+ * {@code TexturedMesh} at runtime.
+ * <p>
+ * A packed mesh is made up by a header, an interleaved vertex buffer and an index buffer, all stored
+ * in little-endian order so that they can be handed to OpenGL without any further conversion:
+ * <pre>
+ *     int    magic        "LAPM"
+ *     int    version      {@value #VERSION}
+ *     int    vertexCount
+ *     int    indexCount
+ *     int    indexSize    bytes per index (2, unsigned short)
+ *     int    subMeshCount
+ *     int    vertexFormat {@value #VERTEX_FORMAT_FLOAT} (float) or {@value #VERTEX_FORMAT_QUANTIZED} (quantized)
+ *     float  positionScale[3]
+ *     float  positionOffset[3]
+ *     int    subMeshes[subMeshCount * 2]  vertexCount, indexCount of each sub-mesh
+ *     vertices[vertexCount]
+ *     short  indices[indexCount]
+ * </pre>
+ * </p>
+ * <p>
+ * Float vertices are 20 bytes: x, y, z, u, v as floats. Quantized vertices are 12 bytes: x, y, z and a
+ * padding as normalized unsigned shorts, then u, v as normalized unsigned shorts. A quantized position
+ * is decoded as {@code p * positionScale + positionOffset}, which maps [0, 1] onto the bounding box of
+ * the mesh; float positions have a scale of 1 and an offset of 0. Meshes with texture coordinates
+ * outside [0, 1] are always stored as floats.
+ * </p>
+ * <p>
+ * Indices are 16-bit, so a mesh with more than 65536 vertices is split into sub-meshes which are
+ * drawn one after the other: the vertices and indices of each sub-mesh follow those of the previous
+ * one, and its indices start from 0 at its first vertex. Smaller meshes have a single sub-mesh.
+ * </p>
+ * <p>
+ * Reduced levels of detail, built by {@link MeshSimplifier}, are written in the same format to
+ * separate files, so that the runtime can load them only when they exist.
+ * </p>
+ */
+public class MeshConverter {
+    public static final String OBJ_EXTENSION = ".obj";
+    public static final String MESH_EXTENSION = ".mesh";
+
+    // Must be kept aligned with the constants in MeshData.
+    public static final int MAGIC = 0x4D50414C; // "LAPM" read as a little-endian int.
+    public static final int VERSION = 3;
+    public static final int HEADER_SIZE = 7 * 4 + 6 * 4;
+    public static final int SUB_MESH_SIZE = 2 * 4;
+    public static final int VERTEX_FORMAT_FLOAT = 0;
+    public static final int VERTEX_FORMAT_QUANTIZED = 1;
+    public static final int FLOAT_VERTEX_SIZE = 5 * 4;
+    public static final int QUANTIZED_VERTEX_SIZE = 6 * 2;
+    public static final int SHORT_INDEX_SIZE = 2;
+
+    // The largest value of a normalized unsigned short, which stands for 1.
+    private static final int QUANTIZED_ONE = 0xFFFF;
+
+    // The number of vertices that 16-bit indices can address.
+    private static final int MAX_SUB_MESH_VERTICES = 0x10000;
+
+    // Level n of detail is stored in name.lodn.mesh.
+    public static final String LOD_INFIX = ".lod";
+    // Each level of detail aims at this fraction of the triangles of the previous one.
+    private static final double LOD_REDUCTION = 0.5;
+    // A level is dropped if it keeps more than this fraction of the triangles of the previous one.
+    private static final double MAX_LOD_RATIO = 0.9;
+    // Meshes are not reduced below this number of triangles, which costs nothing to draw anyway.
+    private static final int MIN_LOD_TRIANGLES = 100;
+
+    /**
+     * Class only contains static methods.
+     */
+    private MeshConverter() {
+    }
+
+    /**
+     * The outcome of the conversion of a model.
+     */
+    public static class Result {
+        // The number of triangles of each written level, starting from the full mesh.
+        public final int[] triangleCounts;
+        // The average cache miss ratio of the full mesh, in the .obj order and after the optimization.
+        public final double originalAcmr;
+        public final double optimizedAcmr;
+        // True if the vertices have been quantized.
+        public final boolean quantized;
+
+        Result(int[] triangleCounts, double originalAcmr, double optimizedAcmr, boolean quantized) {
+            this.triangleCounts = triangleCounts;
+            this.originalAcmr = originalAcmr;
+            this.optimizedAcmr = optimizedAcmr;
+            this.quantized = quantized;
+        }
+    }
+
+    /**
+     * Converts an .obj file into a packed mesh file.
+     *
+     * @param objFile  The .obj file to read.
+     * @param meshFile The packed mesh file to write.
+     * @return The outcome of the conversion.
+     * @throws IOException if the .obj file can not be read or the mesh can not be written.
+     */
+    public static Result convert(File objFile, File meshFile) throws IOException {
+        return convert(objFile, meshFile, 0, true);
+    }
+
+    /**
+     * Converts an .obj file into a packed mesh file, and writes its lower levels of detail next to it.
+     * Level {@code n} is written to {@code name.lodn.mesh} and has {@value #LOD_REDUCTION} times the
+     * triangles of the previous level; levels which would be too small or can not be reduced enough
+     * are not written.
+     * Each level is optimized for the vertex caches of the GPU by {@link MeshOptimizer}.
+     *
+     * @param objFile   The .obj file to read.
+     * @param meshFile  The packed mesh file to write.
+     * @param lodLevels The number of reduced levels to write besides the mesh itself.
+     * @param quantize  True to store the vertices as normalized shorts, if their texture coordinates allow.
+     * @return The outcome of the conversion.
+     * @throws IOException if the .obj file can not be read or the meshes can not be written.
+     */
+    public static Result convert(File objFile, File meshFile, int lodLevels, boolean quantize)
+            throws IOException {
+        Obj obj;
+        try (InputStream objInputStream = new FileInputStream(objFile)) {
+            // This is the same conversion TexturedMesh applies when it loads an .obj file directly.
+            obj = ObjUtils.convertToRenderable(ObjReader.read(objInputStream));
+        }
+
+        Mesh original = new Mesh(toArray(ObjData.getVertices(obj)), toArray(ObjData.getTexCoords(obj, 2)),
+                toArray(ObjData.getFaceVertexIndices(obj, 3)));
+        Mesh optimized = MeshOptimizer.optimize(original);
+        // The reduced levels keep a subset of the texture coordinates, so they can be quantized too.
+        quantize = quantize && hasNormalizedUvs(optimized);
+        write(meshFile, optimized, quantize);
+
+        List<Integer> triangleCounts = new ArrayList<>();
+        triangleCounts.add(optimized.getTriangleCount());
+        Mesh mesh = optimized;
+        for (int level = 1; level <= lodLevels; level++) {
+            int previous = mesh.getTriangleCount();
+            int target = (int) (previous * LOD_REDUCTION);
+            if (target < MIN_LOD_TRIANGLES)
+                break;
+            Mesh reduced = MeshSimplifier.simplify(mesh, target);
+            if (reduced.getTriangleCount() > previous * MAX_LOD_RATIO)
+                break;
+            mesh = MeshOptimizer.optimize(reduced);
+            write(getLodFile(meshFile, level), mesh, quantize);
+            triangleCounts.add(mesh.getTriangleCount());
+        }
+
+        int[] counts = new int[triangleCounts.size()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = triangleCounts.get(i);
+        }
+        return new Result(counts, MeshOptimizer.getAcmr(original.indices, original.getVertexCount()),
+                MeshOptimizer.getAcmr(optimized.indices, optimized.getVertexCount()), quantize);
+    }
+
+    /**
+     * @param meshFile The packed mesh file of the full mesh.
+     * @param level    The level of detail, greater than 0.
+     * @return The packed mesh file of the given level.
+     */
+    public static File getLodFile(File meshFile, int level) {
+        String name = meshFile.getName();
+        String base = name.substring(0, name.length() - MESH_EXTENSION.length());
+        return new File(meshFile.getParentFile(), base + LOD_INFIX + level + MESH_EXTENSION);
+    }
+
+    /**
+     * Writes a packed mesh file.
+     *
+     * @param meshFile The packed mesh file to write.
+     * @param mesh     The mesh to write.
+     * @param quantize True to store the vertices as normalized shorts.
+     * @throws IOException if the mesh can not be written.
+     */
+    private static void write(File meshFile, Mesh mesh, boolean quantize) throws IOException {
+        float[] positions = mesh.positions;
+        float[] uvs = mesh.uvs;
+        int[] indices = mesh.indices;
+        List<SubMesh> subMeshes = split(indices, mesh.getVertexCount());
+
+        int vertexCount = 0;
+        for (SubMesh subMesh : subMeshes) {
+            vertexCount += subMesh.vertices.length;
+        }
+        int indexCount = indices.length;
+
+        ByteBuffer packed = ByteBuffer.allocate(HEADER_SIZE
+                + subMeshes.size() * SUB_MESH_SIZE
+                + vertexCount * (quantize ? QUANTIZED_VERTEX_SIZE : FLOAT_VERTEX_SIZE)
+                + indexCount * SHORT_INDEX_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        packed.putInt(MAGIC);
+        packed.putInt(VERSION);
+        packed.putInt(vertexCount);
+        packed.putInt(indexCount);
+        packed.putInt(SHORT_INDEX_SIZE);
+        packed.putInt(subMeshes.size());
+
+        // Bounding box of the mesh, onto which quantized positions are mapped.
+        float[] scale = {1, 1, 1};
+        float[] offset = {0, 0, 0};
+        if (quantize) {
+            for (int axis = 0; axis < 3; axis++) {
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int i = axis; i < positions.length; i += 3) {
+                    min = Math.min(min, positions[i]);
+                    max = Math.max(max, positions[i]);
+                }
+                offset[axis] = min;
+                scale[axis] = max - min;
+            }
+        }
+        packed.putInt(quantize ? VERTEX_FORMAT_QUANTIZED : VERTEX_FORMAT_FLOAT);
+        for (float value : scale) {
+            packed.putFloat(value);
+        }
+        for (float value : offset) {
+            packed.putFloat(value);
+        }
+
+        for (SubMesh subMesh : subMeshes) {
+            packed.putInt(subMesh.vertices.length);
+            packed.putInt(subMesh.indices.length);
+        }
+
+        // Interleaves positions and UV coordinates, so that each vertex is read from a single place.
+        for (SubMesh subMesh : subMeshes) {
+            for (int i : subMesh.vertices) {
+                if (quantize) {
+                    for (int axis = 0; axis < 3; axis++) {
+                        float position = positions[i * 3 + axis] - offset[axis];
+                        packed.putShort(toNormalizedShort(scale[axis] == 0 ? 0 : position / scale[axis]));
+                    }
+                    // Keeps the texture coordinates aligned to 4 bytes.
+                    packed.putShort((short) 0);
+                    packed.putShort(toNormalizedShort(uvs[i * 2]));
+                    packed.putShort(toNormalizedShort(uvs[i * 2 + 1]));
+                } else {
+                    packed.putFloat(positions[i * 3]);
+                    packed.putFloat(positions[i * 3 + 1]);
+                    packed.putFloat(positions[i * 3 + 2]);
+                    packed.putFloat(uvs[i * 2]);
+                    packed.putFloat(uvs[i * 2 + 1]);
+                }
+            }
+        }
+
+        for (SubMesh subMesh : subMeshes) {
+            for (int index : subMesh.indices) {
+                packed.putShort((short) index);
+            }
+        }
+
+        File parent = meshFile.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(meshFile))) {
+            out.write(packed.array());
+        }
+    }
+
+    /**
+     * @param value A value between 0 and 1.
+     * @return The nearest normalized unsigned short, as the bits of a short.
+     */
+    private static short toNormalizedShort(float value) {
+        return (short) Math.round(Math.min(Math.max(value, 0), 1) * QUANTIZED_ONE);
+    }
+
+    /**
+     * @param mesh A mesh.
+     * @return True if all the texture coordinates of the mesh are between 0 and 1.
+     */
+    private static boolean hasNormalizedUvs(Mesh mesh) {
+        for (float uv : mesh.uvs) {
+            if (uv < 0 || uv > 1)
+                return false;
+        }
+        return true;
+    }
+
+    private static int[] toArray(IntBuffer buffer) {
+        int[] array = new int[buffer.limit()];
+        buffer.get(array);
+        return array;
+    }
+
+    private static float[] toArray(FloatBuffer buffer) {
+        float[] array = new float[buffer.limit()];
+        buffer.get(array);
+        return array;
+    }
+
+    /**
+     * A part of a mesh that 16-bit indices can address.
+     */
+    private static class SubMesh {
+        // The vertices of the sub-mesh, as indices in the whole mesh.
+        final int[] vertices;
+        // The triangles of the sub-mesh, as indices in {@code vertices}.
+        final int[] indices;
+
+        SubMesh(int[] vertices, int[] indices) {
+            this.vertices = vertices;
+            this.indices = indices;
+        }
+    }
+
+    /**
+     * Splits a triangle mesh into sub-meshes of at most {@value #MAX_SUB_MESH_VERTICES} vertices.
+     * Triangles are kept in order and assigned to the current sub-mesh until their vertices do not fit;
+     * vertices shared by triangles of different sub-meshes are duplicated.
+     *
+     * @param indices     The triangles of the mesh.
+     * @param vertexCount The number of vertices of the mesh.
+     * @return The sub-meshes, which are a single one for meshes that fit 16-bit indices.
+     */
+    private static List<SubMesh> split(int[] indices, int vertexCount) {
+        List<SubMesh> subMeshes = new ArrayList<>();
+        if (vertexCount <= MAX_SUB_MESH_VERTICES) {
+            int[] identity = new int[vertexCount];
+            for (int i = 0; i < vertexCount; i++) {
+                identity[i] = i;
+            }
+            subMeshes.add(new SubMesh(identity, indices));
+            return subMeshes;
+        }
+
+        // Local index of each vertex of the mesh in the current sub-mesh, or -1.
+        int[] local = new int[vertexCount];
+        Arrays.fill(local, -1);
+        IntList subVertices = new IntList();
+        IntList subIndices = new IntList();
+        for (int t = 0; t < indices.length; t += 3) {
+            int missing = 0;
+            for (int k = 0; k < 3; k++) {
+                if (local[indices[t + k]] < 0)
+                    missing++;
+            }
+            if (subVertices.size() + missing > MAX_SUB_MESH_VERTICES) {
+                subMeshes.add(new SubMesh(subVertices.toArray(), subIndices.toArray()));
+                for (int i : subVertices.toArray()) {
+                    local[i] = -1;
+                }
+                subVertices = new IntList();
+                subIndices = new IntList();
+            }
+            for (int k = 0; k < 3; k++) {
+                int vertex = indices[t + k];
+                if (local[vertex] < 0) {
+                    local[vertex] = subVertices.size();
+                    subVertices.add(vertex);
+                }
+                subIndices.add(local[vertex]);
+            }
+        }
+        if (subIndices.size() > 0)
+            subMeshes.add(new SubMesh(subVertices.toArray(), subIndices.toArray()));
+        return subMeshes;
+    }
+
+    /**
+     * A growable list of ints.
+     */
+    private static class IntList {
+        private int[] values = new int[1024];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length)
+                values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
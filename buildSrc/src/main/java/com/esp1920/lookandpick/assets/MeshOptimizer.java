@@ -0,0 +1,275 @@
+package com.esp1920.lookandpick.assets;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class reorders the triangles and vertices of a mesh so that the GPU transforms and fetches
+ * each vertex as few times as possible.
+ * <p>
+ * The optimization runs in three steps:
+ * <ol>
+ *     <li>vertices with the same position and texture coordinates are welded, so that triangles
+ *     which share them can reuse their transformed copy;</li>
+ *     <li>triangles are reordered for the post-transform vertex cache, with the linear-speed
+ *     algorithm by Tom Forsyth (2006);</li>
+ *     <li>vertices are reordered in the order the triangles first use them, so that they are
+ *     fetched from memory sequentially.</li>
+ * </ol>
+ * The efficiency of the cache is measured by the average cache miss ratio (ACMR), the number of
+ * vertices transformed per triangle: it is 3 without any reuse, and about 0.5 to 0.7 for a
+ * well-ordered regular mesh.
+ * </p>
+ */
+public class MeshOptimizer {
+    // Size of the FIFO cache simulated by getAcmr(), a common size for mobile GPUs.
+    public static final int SIMULATED_CACHE_SIZE = 16;
+
+    // Parameters of the vertex scores of Forsyth's algorithm, which models an LRU cache.
+    private static final int CACHE_SIZE = 32;
+    private static final float CACHE_DECAY_POWER = 1.5f;
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+    private static final float VALENCE_BOOST_POWER = 0.5f;
+
+    /**
+     * Class only contains static methods.
+     */
+    private MeshOptimizer() {
+    }
+
+    /**
+     * Welds the vertices of a mesh and reorders its triangles and vertices.
+     *
+     * @param mesh The mesh to optimize.
+     * @return The optimized mesh, which has the same triangles.
+     */
+    public static Mesh optimize(Mesh mesh) {
+        Mesh welded = weld(mesh);
+        int[] indices = reorderTriangles(welded.indices, welded.getVertexCount());
+        return reorderVertices(new Mesh(welded.positions, welded.uvs, indices));
+    }
+
+    /**
+     * Merges the vertices which have the same position and texture coordinates.
+     *
+     * @param mesh The mesh to weld.
+     * @return The mesh with unique vertices, in the order they are first found.
+     */
+    public static Mesh weld(Mesh mesh) {
+        Map<List<Float>, Integer> unique = new HashMap<>();
+        int vertexCount = mesh.getVertexCount();
+        int[] remap = new int[vertexCount];
+        float[] weldedPositions = new float[mesh.positions.length];
+        float[] weldedUvs = new float[mesh.uvs.length];
+        int welded = 0;
+        for (int i = 0; i < vertexCount; i++) {
+            List<Float> key = Arrays.asList(mesh.positions[i * 3], mesh.positions[i * 3 + 1],
+                    mesh.positions[i * 3 + 2], mesh.uvs[i * 2], mesh.uvs[i * 2 + 1]);
+            Integer index = unique.get(key);
+            if (index == null) {
+                index = welded++;
+                unique.put(key, index);
+                System.arraycopy(mesh.positions, i * 3, weldedPositions, index * 3, 3);
+                System.arraycopy(mesh.uvs, i * 2, weldedUvs, index * 2, 2);
+            }
+            remap[i] = index;
+        }
+        int[] weldedIndices = new int[mesh.indices.length];
+        for (int i = 0; i < mesh.indices.length; i++) {
+            weldedIndices[i] = remap[mesh.indices[i]];
+        }
+        return new Mesh(Arrays.copyOf(weldedPositions, welded * 3), Arrays.copyOf(weldedUvs, welded * 2),
+                weldedIndices);
+    }
+
+    /**
+     * Simulates a FIFO post-transform cache of {@value #SIMULATED_CACHE_SIZE} vertices.
+     *
+     * @param indices     The triangles of a mesh.
+     * @param vertexCount The number of vertices of the mesh.
+     * @return The average number of vertices transformed per triangle.
+     */
+    public static double getAcmr(int[] indices, int vertexCount) {
+        if (indices.length == 0)
+            return 0;
+        // The time each vertex entered the cache, which holds the vertices entered after time - size.
+        int[] entered = new int[vertexCount];
+        Arrays.fill(entered, Integer.MIN_VALUE);
+        int misses = 0;
+        for (int index : indices) {
+            if (entered[index] < misses - SIMULATED_CACHE_SIZE) {
+                entered[index] = misses;
+                misses++;
+            }
+        }
+        return misses / (indices.length / 3.0);
+    }
+
+    /**
+     * Reorders the triangles greedily: the next triangle is the one whose vertices have the best score,
+     * which is higher for vertices recently used (likely to be in the cache) and for vertices with few
+     * remaining triangles (to avoid leaving isolated triangles behind).
+     *
+     * @param indices     The triangles of the mesh.
+     * @param vertexCount The number of vertices of the mesh.
+     * @return The same triangles in the new order.
+     */
+    private static int[] reorderTriangles(int[] indices, int vertexCount) {
+        int triangleCount = indices.length / 3;
+
+        // Triangles of each vertex: those of vertex v are at vertexTriangles[triangleStart[v]...].
+        int[] remaining = new int[vertexCount];
+        for (int index : indices) {
+            remaining[index]++;
+        }
+        int[] triangleStart = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++) {
+            triangleStart[v + 1] = triangleStart[v] + remaining[v];
+        }
+        int[] vertexTriangles = new int[indices.length];
+        int[] filled = new int[vertexCount];
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                int v = indices[t * 3 + k];
+                vertexTriangles[triangleStart[v] + filled[v]++] = t;
+            }
+        }
+
+        int[] cachePosition = new int[vertexCount];
+        Arrays.fill(cachePosition, -1);
+        float[] vertexScores = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++) {
+            vertexScores[v] = score(cachePosition[v], remaining[v]);
+        }
+        boolean[] added = new boolean[triangleCount];
+        float[] triangleScores = new float[triangleCount];
+        for (int t = 0; t < triangleCount; t++) {
+            triangleScores[t] = vertexScores[indices[t * 3]] + vertexScores[indices[t * 3 + 1]]
+                    + vertexScores[indices[t * 3 + 2]];
+        }
+
+        int[] result = new int[indices.length];
+        // The simulated LRU cache, with room for the vertices of the added triangle.
+        int[] cache = new int[CACHE_SIZE + 3];
+        int cacheSize = 0;
+        int[] newCache = new int[CACHE_SIZE + 3];
+        int nextScan = 0;
+        int best = -1;
+        for (int output = 0; output < triangleCount; output++) {
+            if (best < 0) {
+                // No triangle uses the cached vertices: takes the best of the remaining ones.
+                float bestScore = -1;
+                while (nextScan < triangleCount && added[nextScan]) {
+                    nextScan++;
+                }
+                for (int t = nextScan; t < triangleCount; t++) {
+                    if (!added[t] && triangleScores[t] > bestScore) {
+                        bestScore = triangleScores[t];
+                        best = t;
+                    }
+                }
+            }
+
+            added[best] = true;
+            System.arraycopy(indices, best * 3, result, output * 3, 3);
+
+            // Moves the vertices of the triangle to the front of the cache, then the other ones.
+            int newCacheSize = 0;
+            for (int k = 0; k < 3; k++) {
+                int v = indices[best * 3 + k];
+                newCache[newCacheSize++] = v;
+                remaining[v]--;
+                for (int i = triangleStart[v]; i < triangleStart[v + 1]; i++) {
+                    if (vertexTriangles[i] == best) {
+                        vertexTriangles[i] = vertexTriangles[triangleStart[v] + remaining[v]];
+                        vertexTriangles[triangleStart[v] + remaining[v]] = best;
+                        break;
+                    }
+                }
+            }
+            for (int i = 0; i < cacheSize; i++) {
+                int v = cache[i];
+                if (v != indices[best * 3] && v != indices[best * 3 + 1] && v != indices[best * 3 + 2])
+                    newCache[newCacheSize++] = v;
+            }
+            int[] swap = cache;
+            cache = newCache;
+            newCache = swap;
+            cacheSize = newCacheSize;
+
+            // Updates the scores of the cached vertices, and of those which fell out of the cache, then
+            // picks the best triangle among those which use them.
+            best = -1;
+            float bestScore = -1;
+            for (int i = 0; i < cacheSize; i++) {
+                int v = cache[i];
+                cachePosition[v] = i < CACHE_SIZE ? i : -1;
+                float newScore = score(cachePosition[v], remaining[v]);
+                float delta = newScore - vertexScores[v];
+                vertexScores[v] = newScore;
+                for (int j = triangleStart[v]; j < triangleStart[v] + remaining[v]; j++) {
+                    int t = vertexTriangles[j];
+                    triangleScores[t] += delta;
+                    if (triangleScores[t] > bestScore) {
+                        bestScore = triangleScores[t];
+                        best = t;
+                    }
+                }
+            }
+            cacheSize = Math.min(cacheSize, CACHE_SIZE);
+        }
+        return result;
+    }
+
+    /**
+     * @param cachePosition  The position of the vertex in the LRU cache, or -1 if it is not cached.
+     * @param remaining      The number of triangles not yet added which use the vertex.
+     * @return The score of the vertex in Forsyth's algorithm.
+     */
+    private static float score(int cachePosition, int remaining) {
+        if (remaining == 0)
+            return -1;
+
+        float score = 0;
+        if (cachePosition >= 0) {
+            if (cachePosition < 3) {
+                // The vertices of the last triangle get a fixed score, so that the next triangle does
+                // not depend on the order they were added.
+                score = LAST_TRIANGLE_SCORE;
+            } else {
+                float scaler = 1.0f / (CACHE_SIZE - 3);
+                score = (float) Math.pow(1.0f - (cachePosition - 3) * scaler, CACHE_DECAY_POWER);
+            }
+        }
+        return score + VALENCE_BOOST_SCALE * (float) Math.pow(remaining, -VALENCE_BOOST_POWER);
+    }
+
+    /**
+     * Stores the vertices in the order the triangles use them first. Unused vertices are dropped.
+     *
+     * @param mesh The mesh to reorder.
+     * @return The mesh with the same triangles and the vertices in the new order.
+     */
+    private static Mesh reorderVertices(Mesh mesh) {
+        int[] remap = new int[mesh.getVertexCount()];
+        Arrays.fill(remap, -1);
+        float[] positions = new float[mesh.positions.length];
+        float[] uvs = new float[mesh.uvs.length];
+        int[] indices = new int[mesh.indices.length];
+        int vertexCount = 0;
+        for (int i = 0; i < indices.length; i++) {
+            int vertex = mesh.indices[i];
+            if (remap[vertex] < 0) {
+                remap[vertex] = vertexCount;
+                System.arraycopy(mesh.positions, vertex * 3, positions, vertexCount * 3, 3);
+                System.arraycopy(mesh.uvs, vertex * 2, uvs, vertexCount * 2, 2);
+                vertexCount++;
+            }
+            indices[i] = remap[vertex];
+        }
+        return new Mesh(Arrays.copyOf(positions, vertexCount * 3), Arrays.copyOf(uvs, vertexCount * 2), indices);
+    }
+}
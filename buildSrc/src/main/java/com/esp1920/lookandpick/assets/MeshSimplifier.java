@@ -0,0 +1,355 @@
+package com.esp1920.lookandpick.assets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * This class reduces the number of triangles of a mesh, to build its lower levels of detail.
+ * <p>
+ * It implements quadric error metric simplification (Garland and Heckbert, 1997) with half-edge
+ * collapses: the cheapest edge is removed by moving one of its vertices onto the other one, so that
+ * no new positions or texture coordinates are made up. Mesh borders and texture seams are kept in
+ * place by heavily weighted constraint planes, and collapses that would flip a triangle are refused.
+ * </p>
+ */
+public class MeshSimplifier {
+    // Weight of the planes that keep borders and texture seams in place.
+    private static final double BORDER_WEIGHT = 1000.0;
+    // A collapse is refused if it turns a triangle normal by more than about 80 degrees.
+    private static final double MIN_NORMAL_DOT = 0.2;
+
+    /**
+     * A candidate collapse of vertex {@code from} onto vertex {@code to}.
+     */
+    private static class Collapse implements Comparable<Collapse> {
+        final int from;
+        final int to;
+        final double cost;
+        // Versions of the two vertices when the cost was computed: the collapse is stale if they changed.
+        final int fromVersion;
+        final int toVersion;
+
+        Collapse(int from, int to, double cost, int fromVersion, int toVersion) {
+            this.from = from;
+            this.to = to;
+            this.cost = cost;
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+        }
+
+        @Override
+        public int compareTo(Collapse other) {
+            return Double.compare(cost, other.cost);
+        }
+    }
+
+    private final float[] positions;
+    private final float[] uvs;
+    private final int[] triangles;
+    private final boolean[] removedTriangles;
+    private final List<Set<Integer>> vertexTriangles;
+    private final double[][] quadrics;
+    private final int[] versions;
+    private int triangleCount;
+
+    /**
+     * Class is used through {@link #simplify(Mesh, int)}.
+     */
+    private MeshSimplifier(float[] positions, float[] uvs, int[] indices) {
+        this.positions = positions;
+        this.uvs = uvs;
+        this.triangles = indices.clone();
+        triangleCount = indices.length / 3;
+        removedTriangles = new boolean[triangleCount];
+
+        int vertexCount = positions.length / 3;
+        vertexTriangles = new ArrayList<>(vertexCount);
+        for (int i = 0; i < vertexCount; i++) {
+            vertexTriangles.add(new HashSet<Integer>());
+        }
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                vertexTriangles.get(triangles[t * 3 + k]).add(t);
+            }
+        }
+        quadrics = new double[vertexCount][10];
+        versions = new int[vertexCount];
+    }
+
+    /**
+     * Simplifies a mesh. Vertices with the same position and texture coordinates are welded first.
+     *
+     * @param mesh            The mesh to simplify.
+     * @param targetTriangles The number of triangles to reach, if possible.
+     * @return The simplified mesh, whose unused vertices have been removed.
+     */
+    public static Mesh simplify(Mesh mesh, int targetTriangles) {
+        Mesh welded = MeshOptimizer.weld(mesh);
+        MeshSimplifier simplifier = new MeshSimplifier(welded.positions, welded.uvs, welded.indices);
+        simplifier.computeQuadrics();
+        simplifier.collapseUntil(targetTriangles);
+        return simplifier.compact();
+    }
+
+    /**
+     * Sums the planes of the triangles around each vertex, and the constraint planes along the edges
+     * that belong to a single triangle (mesh borders and texture seams).
+     */
+    private void computeQuadrics() {
+        Map<Long, Integer> edgeUses = new HashMap<>();
+        for (int t = 0; t < triangleCount; t++) {
+            for (int k = 0; k < 3; k++) {
+                edgeUses.merge(edgeKey(triangles[t * 3 + k], triangles[t * 3 + (k + 1) % 3]), 1, Integer::sum);
+            }
+        }
+
+        for (int t = 0; t < triangleCount; t++) {
+            double[] normal = normal(triangles[t * 3], triangles[t * 3 + 1], triangles[t * 3 + 2]);
+            double area = length(normal) / 2;
+            if (area == 0)
+                continue;
+            scale(normal, 1 / (2 * area));
+            double[] plane = plane(normal, triangles[t * 3]);
+            for (int k = 0; k < 3; k++) {
+                addPlane(quadrics[triangles[t * 3 + k]], plane, area);
+            }
+
+            for (int k = 0; k < 3; k++) {
+                int a = triangles[t * 3 + k];
+                int b = triangles[t * 3 + (k + 1) % 3];
+                if (edgeUses.get(edgeKey(a, b)) != 1)
+                    continue;
+                // Plane through the edge, perpendicular to the triangle.
+                double[] edge = sub(b, a);
+                double edgeLength = length(edge);
+                if (edgeLength == 0)
+                    continue;
+                double[] borderNormal = cross(edge, normal);
+                scale(borderNormal, 1 / length(borderNormal));
+                double[] borderPlane = plane(borderNormal, a);
+                addPlane(quadrics[a], borderPlane, BORDER_WEIGHT * edgeLength * edgeLength);
+                addPlane(quadrics[b], borderPlane, BORDER_WEIGHT * edgeLength * edgeLength);
+            }
+        }
+    }
+
+    /**
+     * Collapses the cheapest edges until the mesh has at most the given number of triangles, or no
+     * valid collapse is left.
+     */
+    private void collapseUntil(int targetTriangles) {
+        PriorityQueue<Collapse> queue = new PriorityQueue<>();
+        for (int v = 0; v < vertexTriangles.size(); v++) {
+            addCollapses(queue, v);
+        }
+
+        while (triangleCount > targetTriangles && !queue.isEmpty()) {
+            Collapse collapse = queue.poll();
+            if (versions[collapse.from] != collapse.fromVersion || versions[collapse.to] != collapse.toVersion
+                    || vertexTriangles.get(collapse.from).isEmpty())
+                continue;
+            if (flips(collapse.from, collapse.to))
+                continue;
+
+            apply(collapse.from, collapse.to);
+            addCollapses(queue, collapse.to);
+            for (int neighbor : neighbors(collapse.to)) {
+                versions[neighbor]++;
+                addCollapses(queue, neighbor);
+            }
+        }
+    }
+
+    /**
+     * Adds the collapses of a vertex onto each of its neighbors, and of each neighbor onto it.
+     */
+    private void addCollapses(PriorityQueue<Collapse> queue, int vertex) {
+        for (int neighbor : neighbors(vertex)) {
+            queue.add(new Collapse(vertex, neighbor, cost(vertex, neighbor), versions[vertex], versions[neighbor]));
+            queue.add(new Collapse(neighbor, vertex, cost(neighbor, vertex), versions[neighbor], versions[vertex]));
+        }
+    }
+
+    /**
+     * @return The error of moving {@code from} onto the position of {@code to}.
+     */
+    private double cost(int from, int to) {
+        double[] q = quadrics[from];
+        double[] r = quadrics[to];
+        double x = positions[to * 3];
+        double y = positions[to * 3 + 1];
+        double z = positions[to * 3 + 2];
+        double[] s = new double[10];
+        for (int i = 0; i < 10; i++) {
+            s[i] = q[i] + r[i];
+        }
+        return s[0] * x * x + 2 * s[1] * x * y + 2 * s[2] * x * z + 2 * s[3] * x
+                + s[4] * y * y + 2 * s[5] * y * z + 2 * s[6] * y
+                + s[7] * z * z + 2 * s[8] * z
+                + s[9];
+    }
+
+    /**
+     * @return True if moving {@code from} onto {@code to} would flip or degenerate a remaining triangle.
+     */
+    private boolean flips(int from, int to) {
+        for (int t : vertexTriangles.get(from)) {
+            int a = triangles[t * 3];
+            int b = triangles[t * 3 + 1];
+            int c = triangles[t * 3 + 2];
+            if (a == to || b == to || c == to)
+                continue; // This triangle is removed by the collapse.
+
+            double[] before = normal(a, b, c);
+            double[] after = normal(a == from ? to : a, b == from ? to : b, c == from ? to : c);
+            double lengths = length(before) * length(after);
+            if (lengths == 0 || dot(before, after) / lengths < MIN_NORMAL_DOT)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves {@code from} onto {@code to}: the triangles which had both are removed, the others are
+     * attached to {@code to}.
+     */
+    private void apply(int from, int to) {
+        for (int t : vertexTriangles.get(from)) {
+            boolean degenerate = false;
+            for (int k = 0; k < 3; k++) {
+                if (triangles[t * 3 + k] == to)
+                    degenerate = true;
+            }
+            if (degenerate) {
+                removedTriangles[t] = true;
+                triangleCount--;
+                for (int k = 0; k < 3; k++) {
+                    int vertex = triangles[t * 3 + k];
+                    if (vertex != from)
+                        vertexTriangles.get(vertex).remove(t);
+                }
+            } else {
+                for (int k = 0; k < 3; k++) {
+                    if (triangles[t * 3 + k] == from)
+                        triangles[t * 3 + k] = to;
+                }
+                vertexTriangles.get(to).add(t);
+            }
+        }
+        vertexTriangles.get(from).clear();
+        for (int i = 0; i < 10; i++) {
+            quadrics[to][i] += quadrics[from][i];
+        }
+        versions[from]++;
+        versions[to]++;
+    }
+
+    /**
+     * @return The vertices which share a triangle with the given one.
+     */
+    private Set<Integer> neighbors(int vertex) {
+        Set<Integer> neighbors = new HashSet<>();
+        for (int t : vertexTriangles.get(vertex)) {
+            for (int k = 0; k < 3; k++) {
+                neighbors.add(triangles[t * 3 + k]);
+            }
+        }
+        neighbors.remove(vertex);
+        return neighbors;
+    }
+
+    /**
+     * @return The remaining triangles, with the vertices they use.
+     */
+    private Mesh compact() {
+        int[] remap = new int[positions.length / 3];
+        Arrays.fill(remap, -1);
+        float[] newPositions = new float[positions.length];
+        float[] newUvs = new float[uvs.length];
+        int[] newIndices = new int[triangleCount * 3];
+        int vertexCount = 0;
+        int index = 0;
+        for (int t = 0; t < removedTriangles.length; t++) {
+            if (removedTriangles[t])
+                continue;
+            for (int k = 0; k < 3; k++) {
+                int vertex = triangles[t * 3 + k];
+                if (remap[vertex] < 0) {
+                    remap[vertex] = vertexCount;
+                    System.arraycopy(positions, vertex * 3, newPositions, vertexCount * 3, 3);
+                    System.arraycopy(uvs, vertex * 2, newUvs, vertexCount * 2, 2);
+                    vertexCount++;
+                }
+                newIndices[index++] = remap[vertex];
+            }
+        }
+        return new Mesh(Arrays.copyOf(newPositions, vertexCount * 3), Arrays.copyOf(newUvs, vertexCount * 2),
+                newIndices);
+    }
+
+    private static long edgeKey(int a, int b) {
+        return ((long) Math.min(a, b) << 32) | Math.max(a, b);
+    }
+
+    /**
+     * Adds the quadric of a plane (a, b, c, d), stored as the upper triangle of a symmetric 4x4 matrix.
+     */
+    private static void addPlane(double[] quadric, double[] plane, double weight) {
+        double a = plane[0];
+        double b = plane[1];
+        double c = plane[2];
+        double d = plane[3];
+        quadric[0] += weight * a * a;
+        quadric[1] += weight * a * b;
+        quadric[2] += weight * a * c;
+        quadric[3] += weight * a * d;
+        quadric[4] += weight * b * b;
+        quadric[5] += weight * b * c;
+        quadric[6] += weight * b * d;
+        quadric[7] += weight * c * c;
+        quadric[8] += weight * c * d;
+        quadric[9] += weight * d * d;
+    }
+
+    private double[] plane(double[] unitNormal, int vertex) {
+        double d = -(unitNormal[0] * positions[vertex * 3] + unitNormal[1] * positions[vertex * 3 + 1]
+                + unitNormal[2] * positions[vertex * 3 + 2]);
+        return new double[]{unitNormal[0], unitNormal[1], unitNormal[2], d};
+    }
+
+    /**
+     * @return The normal of a triangle, whose length is twice its area.
+     */
+    private double[] normal(int a, int b, int c) {
+        return cross(sub(b, a), sub(c, a));
+    }
+
+    private double[] sub(int a, int b) {
+        return new double[]{positions[a * 3] - positions[b * 3], positions[a * 3 + 1] - positions[b * 3 + 1],
+                positions[a * 3 + 2] - positions[b * 3 + 2]};
+    }
+
+    private static double[] cross(double[] u, double[] v) {
+        return new double[]{u[1] * v[2] - u[2] * v[1], u[2] * v[0] - u[0] * v[2], u[0] * v[1] - u[1] * v[0]};
+    }
+
+    private static double dot(double[] u, double[] v) {
+        return u[0] * v[0] + u[1] * v[1] + u[2] * v[2];
+    }
+
+    private static double length(double[] u) {
+        return Math.sqrt(dot(u, u));
+    }
+
+    private static void scale(double[] u, double factor) {
+        for (int i = 0; i < u.length; i++) {
+            u[i] *= factor;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.esp1920.lookandpick.assets;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class converts a .png image into pre-compressed textures with their full mip chain, stored
+ * in KTX files next to the image (see {@link KtxWriter}):
+ * <ul>
+ *     <li>{@code name.etc1.ktx}, compressed by {@link Etc1Encoder}, for opaque images;</li>
+ *     <li>{@code name.astc.ktx}, compressed with 6x6 blocks by the external astcenc tool, if available.</li>
+ * </ul>
+ * The app picks the best of them supported by the device, and decodes the .png otherwise.
+ */
+public class TextureConverter {
+    public static final String PNG_EXTENSION = ".png";
+    public static final String ETC1_EXTENSION = ".etc1.ktx";
+    public static final String ASTC_EXTENSION = ".astc.ktx";
+
+    private static final int GL_RGB = 0x1907;
+    private static final int GL_RGBA = 0x1908;
+    private static final int GL_COMPRESSED_RGBA_ASTC_6x6_KHR = 0x93B4;
+
+    // astcenc settings: block size and quality preset.
+    private static final String ASTC_BLOCK = "6x6";
+    private static final String ASTC_QUALITY = "-medium";
+    // Size of the header of the .astc files written by astcenc.
+    private static final int ASTC_HEADER_SIZE = 16;
+    private static final long ASTC_TIMEOUT_MINUTES = 5;
+
+    /**
+     * Class only contains static methods.
+     */
+    private TextureConverter() {
+    }
+
+    /**
+     * Converts a .png image.
+     *
+     * @param pngFile  The image to convert.
+     * @param basePath The path of the output files, without extension.
+     * @param astcenc  The astcenc executable, or null to skip ASTC compression.
+     * @return The number of written files.
+     * @throws IOException if the image can not be read or a texture can not be written.
+     */
+    public static int convert(File pngFile, File basePath, File astcenc) throws IOException {
+        BufferedImage image = ImageIO.read(pngFile);
+        if (image == null) {
+            throw new IOException("Unsupported image " + pngFile);
+        }
+        List<BufferedImage> chain = buildMipChain(image);
+
+        int written = 0;
+        // ETC1 has no alpha channel.
+        if (isOpaque(image)) {
+            List<byte[]> levels = new ArrayList<>();
+            for (BufferedImage level : chain) {
+                levels.add(Etc1Encoder.encode(rgb(level), level.getWidth(), level.getHeight()));
+            }
+            KtxWriter.write(new File(basePath.getPath() + ETC1_EXTENSION), Etc1Encoder.GL_ETC1_RGB8_OES, GL_RGB,
+                    image.getWidth(), image.getHeight(), levels);
+            written++;
+        }
+
+        if (astcenc != null) {
+            List<byte[]> levels = new ArrayList<>();
+            for (BufferedImage level : chain) {
+                levels.add(encodeAstc(astcenc, level));
+            }
+            KtxWriter.write(new File(basePath.getPath() + ASTC_EXTENSION), GL_COMPRESSED_RGBA_ASTC_6x6_KHR, GL_RGBA,
+                    image.getWidth(), image.getHeight(), levels);
+            written++;
+        }
+        return written;
+    }
+
+    /**
+     * Builds the mip chain of an image with a box filter, down to 1x1.
+     *
+     * @param image The full resolution image.
+     * @return All the levels, from the largest to the smallest.
+     */
+    private static List<BufferedImage> buildMipChain(BufferedImage image) {
+        List<BufferedImage> chain = new ArrayList<>();
+        BufferedImage level = toArgb(image);
+        chain.add(level);
+        while (level.getWidth() > 1 || level.getHeight() > 1) {
+            int width = Math.max(1, level.getWidth() / 2);
+            int height = Math.max(1, level.getHeight() / 2);
+            BufferedImage next = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int x0 = Math.min(x * 2, level.getWidth() - 1);
+                    int x1 = Math.min(x * 2 + 1, level.getWidth() - 1);
+                    int y0 = Math.min(y * 2, level.getHeight() - 1);
+                    int y1 = Math.min(y * 2 + 1, level.getHeight() - 1);
+                    next.setRGB(x, y, average(level.getRGB(x0, y0), level.getRGB(x1, y0),
+                            level.getRGB(x0, y1), level.getRGB(x1, y1)));
+                }
+            }
+            chain.add(next);
+            level = next;
+        }
+        return chain;
+    }
+
+    /**
+     * Compresses an image with astcenc.
+     *
+     * @param astcenc The astcenc executable.
+     * @param image   The image to compress.
+     * @return The compressed image, without the .astc header.
+     * @throws IOException if astcenc fails.
+     */
+    private static byte[] encodeAstc(File astcenc, BufferedImage image) throws IOException {
+        File input = File.createTempFile("level", PNG_EXTENSION);
+        File output = File.createTempFile("level", ".astc");
+        try {
+            ImageIO.write(image, "png", input);
+            Process process = new ProcessBuilder(astcenc.getPath(), "-cl", input.getPath(), output.getPath(),
+                    ASTC_BLOCK, ASTC_QUALITY, "-silent")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            if (!process.waitFor(ASTC_TIMEOUT_MINUTES, TimeUnit.MINUTES) || process.exitValue() != 0) {
+                process.destroy();
+                throw new IOException("astcenc failed on " + input);
+            }
+            byte[] astc = Files.readAllBytes(output.toPath());
+            return Arrays.copyOfRange(astc, ASTC_HEADER_SIZE, astc.length);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            input.delete();
+            output.delete();
+        }
+    }
+
+    /**
+     * @param image An image of any type.
+     * @return A copy of the image with 8-bit ARGB pixels.
+     */
+    private static BufferedImage toArgb(BufferedImage image) {
+        BufferedImage argb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        argb.getGraphics().drawImage(image, 0, 0, null);
+        return argb;
+    }
+
+    /**
+     * @param image The image to check.
+     * @return True if all the pixels of the image are fully opaque.
+     */
+    private static boolean isOpaque(BufferedImage image) {
+        if (!image.getColorModel().hasAlpha())
+            return true;
+        for (int pixel : image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth())) {
+            if ((pixel >>> 24) != 0xFF)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param image The image to read.
+     * @return The pixels, as 0xRRGGBB values in row order, as expected by {@link Etc1Encoder#encode(int[], int, int)}.
+     */
+    private static int[] rgb(BufferedImage image) {
+        int[] pixels = image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] &= 0xFFFFFF;
+        }
+        return pixels;
+    }
+
+    /**
+     * Averages pixels channel by channel, rounding to the nearest value.
+     *
+     * @param pixels The pixels, as 0xAARRGGBB values.
+     * @return The average pixel.
+     */
+    private static int average(int... pixels) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int sum = 0;
+            for (int pixel : pixels) {
+                sum += (pixel >>> shift) & 0xFF;
+            }
+            result |= ((sum + pixels.length / 2) / pixels.length) << shift;
+        }
+        return result;
+    }
+}
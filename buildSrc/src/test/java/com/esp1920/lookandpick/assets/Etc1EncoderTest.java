@@ -0,0 +1,193 @@
+package com.esp1920.lookandpick.assets;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Round-trip tests of {@link Etc1Encoder}: the compressed images are decoded by a reference decoder,
+ * written from the ETC1 specification (OES_compressed_ETC1_RGB8_texture) independently of the encoder,
+ * and compared with the original pixels.
+ */
+public class Etc1EncoderTest {
+    // Intensity modifiers of each table, as listed by the specification.
+    private static final int[][] MODIFIERS = {
+            {2, 8}, {5, 17}, {9, 29}, {13, 42}, {18, 60}, {24, 80}, {33, 106}, {47, 183}
+    };
+
+    @Test
+    public void compressedSizeMatchesOutput() {
+        int[][] sizes = {{1, 1}, {4, 4}, {5, 3}, {16, 8}, {17, 33}};
+        for (int[] size : sizes) {
+            byte[] data = Etc1Encoder.encode(new int[size[0] * size[1]], size[0], size[1]);
+            assertEquals(Etc1Encoder.compressedSize(size[0], size[1]), data.length);
+        }
+    }
+
+    @Test
+    public void solidColorsAreKeptClose() {
+        int[] colors = {0x000000, 0xFFFFFF, 0x808080, 0xFF0000, 0x00FF00, 0x0000FF, 0x123456, 0xC8A064};
+        for (int color : colors) {
+            int[] rgb = new int[16];
+            Arrays.fill(rgb, color);
+            int[] decoded = decode(Etc1Encoder.encode(rgb, 4, 4), 4, 4);
+            assertTrue(String.format("color %06X", color), maxChannelError(rgb, decoded) <= 6);
+        }
+    }
+
+    @Test
+    public void subBlocksOfBothOrientationsAreDecodedInPlace() {
+        // Left and right halves, then top and bottom halves, of two very different colors: only the
+        // matching sub-block orientation can keep them apart.
+        int[] sideBySide = new int[16];
+        int[] stacked = new int[16];
+        for (int y = 0; y < 4; y++) {
+            for (int x = 0; x < 4; x++) {
+                sideBySide[y * 4 + x] = x < 2 ? 0xE03020 : 0x2040D0;
+                stacked[y * 4 + x] = y < 2 ? 0xE03020 : 0x2040D0;
+            }
+        }
+        assertTrue(maxChannelError(sideBySide, decode(Etc1Encoder.encode(sideBySide, 4, 4), 4, 4)) <= 16);
+        assertTrue(maxChannelError(stacked, decode(Etc1Encoder.encode(stacked, 4, 4), 4, 4)) <= 16);
+    }
+
+    @Test
+    public void smoothImageKeepsHighQuality() {
+        int width = 64;
+        int height = 48;
+        int[] rgb = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / (width - 1);
+                int g = y * 255 / (height - 1);
+                int b = (x + y) * 255 / (width + height - 2);
+                rgb[y * width + x] = (r << 16) | (g << 8) | b;
+            }
+        }
+        double psnr = psnr(rgb, decode(Etc1Encoder.encode(rgb, width, height), width, height));
+        assertTrue("PSNR " + psnr, psnr > 35);
+    }
+
+    @Test
+    public void partialBlocksCoverTheImage() {
+        int width = 7;
+        int height = 5;
+        int[] rgb = new int[width * height];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = i % 2 == 0 ? 0x406080 : 0x486888;
+        }
+        int[] decoded = decode(Etc1Encoder.encode(rgb, width, height), width, height);
+        assertTrue(maxChannelError(rgb, decoded) <= 12);
+    }
+
+    @Test
+    public void randomBlocksAreValid() {
+        // The decoder rejects differential blocks whose second base color overflows.
+        Random random = new Random(1);
+        int width = 32;
+        int height = 32;
+        int[] rgb = new int[width * height];
+        for (int i = 0; i < rgb.length; i++) {
+            rgb[i] = random.nextInt(0x1000000);
+        }
+        double psnr = psnr(rgb, decode(Etc1Encoder.encode(rgb, width, height), width, height));
+        // Noise can not be compressed well, but it must still be better than a flat gray image.
+        int[] gray = new int[rgb.length];
+        Arrays.fill(gray, 0x808080);
+        assertTrue("PSNR " + psnr, psnr > psnr(rgb, gray));
+    }
+
+    /**
+     * Decodes an ETC1 image.
+     *
+     * @param data   The compressed blocks, from left to right and from top to bottom.
+     * @param width  The image width.
+     * @param height The image height.
+     * @return The pixels, as 0xRRGGBB values in row order.
+     */
+    private static int[] decode(byte[] data, int width, int height) {
+        int blocksX = (width + 3) / 4;
+        int[] rgb = new int[width * height];
+        for (int block = 0; block < data.length / 8; block++) {
+            long bits = 0;
+            for (int b = 0; b < 8; b++) {
+                bits = (bits << 8) | (data[block * 8 + b] & 0xFF);
+            }
+            boolean differential = ((bits >>> 33) & 1) == 1;
+            boolean flipped = ((bits >>> 32) & 1) == 1;
+            int[] base1 = new int[3];
+            int[] base2 = new int[3];
+            for (int c = 0; c < 3; c++) {
+                if (differential) {
+                    int value1 = (int) ((bits >>> (59 - 8 * c)) & 0x1F);
+                    int delta = (int) ((bits >>> (56 - 8 * c)) & 0x7);
+                    int value2 = value1 + (delta >= 4 ? delta - 8 : delta);
+                    assertTrue("differential overflow", value2 >= 0 && value2 <= 31);
+                    base1[c] = (value1 << 3) | (value1 >> 2);
+                    base2[c] = (value2 << 3) | (value2 >> 2);
+                } else {
+                    base1[c] = (int) ((bits >>> (60 - 8 * c)) & 0xF) * 17;
+                    base2[c] = (int) ((bits >>> (56 - 8 * c)) & 0xF) * 17;
+                }
+            }
+            int[] table1 = MODIFIERS[(int) ((bits >>> 37) & 0x7)];
+            int[] table2 = MODIFIERS[(int) ((bits >>> 34) & 0x7)];
+
+            for (int x = 0; x < 4; x++) {
+                for (int y = 0; y < 4; y++) {
+                    int px = (block % blocksX) * 4 + x;
+                    int py = (block / blocksX) * 4 + y;
+                    if (px >= width || py >= height)
+                        continue;
+                    // Pixels are numbered in column order; the most significant bits of their indices are
+                    // in the upper half.
+                    int pixel = x * 4 + y;
+                    int index = (int) (((bits >>> (16 + pixel)) & 1) << 1 | ((bits >>> pixel) & 1));
+                    boolean second = flipped ? y >= 2 : x >= 2;
+                    int[] table = second ? table2 : table1;
+                    int[] base = second ? base2 : base1;
+                    int modifier = index == 0 ? table[0] : index == 1 ? table[1] : index == 2 ? -table[0] : -table[1];
+                    int color = 0;
+                    for (int c = 0; c < 3; c++) {
+                        color = (color << 8) | Math.max(0, Math.min(255, base[c] + modifier));
+                    }
+                    rgb[py * width + px] = color;
+                }
+            }
+        }
+        return rgb;
+    }
+
+    /**
+     * @return The largest difference between a channel of an expected pixel and the decoded one.
+     */
+    private static int maxChannelError(int[] expected, int[] actual) {
+        int max = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                int d = ((expected[i] >> shift) & 0xFF) - ((actual[i] >> shift) & 0xFF);
+                max = Math.max(max, Math.abs(d));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return The peak signal-to-noise ratio of the decoded pixels, in dB.
+     */
+    private static double psnr(int[] expected, int[] actual) {
+        double squaredError = 0;
+        for (int i = 0; i < expected.length; i++) {
+            for (int shift = 0; shift < 24; shift += 8) {
+                int d = ((expected[i] >> shift) & 0xFF) - ((actual[i] >> shift) & 0xFF);
+                squaredError += d * d;
+            }
+        }
+        double mse = squaredError / (expected.length * 3.0);
+        return 10 * Math.log10(255 * 255 / mse);
+    }
+}
@@ -0,0 +1,96 @@
+package com.esp1920.lookandpick.assets;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link MeshOptimizer}: the optimized meshes must keep the same triangles, with valid
+ * index and vertex permutations, while transforming fewer vertices per triangle.
+ */
+public class MeshOptimizerTest {
+
+    @Test
+    public void acmrCountsCacheMisses() {
+        // A single triangle transforms its three vertices; a second one sharing an edge only one more.
+        assertEquals(3.0, MeshOptimizer.getAcmr(new int[]{0, 1, 2}, 3), 1e-9);
+        assertEquals(2.0, MeshOptimizer.getAcmr(new int[]{0, 1, 2, 0, 2, 3}, 4), 1e-9);
+        assertEquals(0.0, MeshOptimizer.getAcmr(new int[0], 0), 1e-9);
+    }
+
+    @Test
+    public void acmrEvictsTheOldestVertices() {
+        // A strip of triangles which revisits its first vertex after the cache has been filled.
+        int count = MeshOptimizer.SIMULATED_CACHE_SIZE + 2;
+        int[] indices = new int[count * 3 + 3];
+        for (int t = 0; t < count; t++) {
+            indices[t * 3] = t * 3;
+            indices[t * 3 + 1] = t * 3 + 1;
+            indices[t * 3 + 2] = t * 3 + 2;
+        }
+        indices[count * 3] = 0;
+        indices[count * 3 + 1] = 1;
+        indices[count * 3 + 2] = 2;
+        assertEquals(3.0, MeshOptimizer.getAcmr(indices, count * 3), 1e-9);
+    }
+
+    @Test
+    public void weldMergesIdenticalVertices() {
+        Mesh grid = TestMeshes.grid(8);
+        Mesh welded = MeshOptimizer.weld(grid);
+        assertEquals(9 * 9, welded.getVertexCount());
+        assertTrue(TestMeshes.hasValidIndices(welded));
+        assertEquals(TestMeshes.triangles(grid), TestMeshes.triangles(welded));
+    }
+
+    @Test
+    public void weldKeepsVerticesWithDifferentUvs() {
+        float[] positions = {0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 1, 0};
+        float[] uvs = {0, 0, 1, 0, 0, 1, 0.5f, 0.5f, 1, 0, 0, 1};
+        Mesh mesh = new Mesh(positions, uvs, new int[]{0, 1, 2, 3, 4, 5});
+        Mesh welded = MeshOptimizer.weld(mesh);
+        // Only the first vertex differs between the two triangles.
+        assertEquals(4, welded.getVertexCount());
+        assertEquals(TestMeshes.triangles(mesh), TestMeshes.triangles(welded));
+    }
+
+    @Test
+    public void optimizeKeepsTheSameTriangles() {
+        Mesh mesh = TestMeshes.shuffleTriangles(TestMeshes.grid(16), new Random(1));
+        Mesh optimized = MeshOptimizer.optimize(mesh);
+        assertEquals(mesh.getTriangleCount(), optimized.getTriangleCount());
+        assertEquals(17 * 17, optimized.getVertexCount());
+        assertTrue(TestMeshes.hasValidIndices(optimized));
+        assertEquals(TestMeshes.triangles(mesh), TestMeshes.triangles(optimized));
+    }
+
+    @Test
+    public void optimizeStoresVerticesInOrderOfFirstUse() {
+        Mesh optimized = MeshOptimizer.optimize(TestMeshes.sphere(12, 24));
+        int next = 0;
+        for (int index : optimized.indices) {
+            assertTrue(index <= next);
+            if (index == next)
+                next++;
+        }
+        assertEquals(optimized.getVertexCount(), next);
+    }
+
+    @Test
+    public void optimizeLowersAcmr() {
+        Mesh[] meshes = {
+                TestMeshes.shuffleTriangles(MeshOptimizer.weld(TestMeshes.grid(32)), new Random(2)),
+                TestMeshes.shuffleTriangles(TestMeshes.sphere(24, 48), new Random(3))
+        };
+        for (Mesh mesh : meshes) {
+            double before = MeshOptimizer.getAcmr(mesh.indices, mesh.getVertexCount());
+            Mesh optimized = MeshOptimizer.optimize(mesh);
+            double after = MeshOptimizer.getAcmr(optimized.indices, optimized.getVertexCount());
+            assertTrue("ACMR " + before + " -> " + after, before > 2.0);
+            assertTrue("ACMR " + before + " -> " + after, after < 0.9);
+        }
+    }
+}
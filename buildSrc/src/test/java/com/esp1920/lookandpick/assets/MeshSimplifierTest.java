@@ -0,0 +1,110 @@
+package com.esp1920.lookandpick.assets;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link MeshSimplifier}: it must reach the target triangle count when the mesh allows it,
+ * and return valid meshes which keep their borders.
+ */
+public class MeshSimplifierTest {
+
+    @Test
+    public void closedMeshReachesTargetTriangleCount() {
+        Mesh sphere = TestMeshes.sphere(16, 32);
+        int[] targets = {sphere.getTriangleCount() / 2, sphere.getTriangleCount() / 4, 100};
+        for (int target : targets) {
+            Mesh simplified = MeshSimplifier.simplify(sphere, target);
+            assertTrue(simplified.getTriangleCount() + " > " + target, simplified.getTriangleCount() <= target);
+            // Each collapse removes at most two triangles, so it does not stop far below the target.
+            assertTrue(simplified.getTriangleCount() + " << " + target, simplified.getTriangleCount() >= target - 2);
+            assertTrue(TestMeshes.hasValidIndices(simplified));
+            assertNoDegenerateTriangles(simplified);
+        }
+    }
+
+    @Test
+    public void simplifiedSphereKeepsItsShape() {
+        Mesh simplified = MeshSimplifier.simplify(TestMeshes.sphere(16, 32), 200);
+        // Vertices are never moved to new positions, so they all stay on the unit sphere.
+        for (int v = 0; v < simplified.getVertexCount(); v++) {
+            float x = simplified.positions[v * 3];
+            float y = simplified.positions[v * 3 + 1];
+            float z = simplified.positions[v * 3 + 2];
+            assertEquals(1.0, Math.sqrt(x * x + y * y + z * z), 1e-5);
+        }
+        // No triangle is turned inside out: the normals do not point towards the center. Triangles whose
+        // vertices lie on a great circle are edge-on, up to rounding.
+        for (int t = 0; t < simplified.getTriangleCount(); t++) {
+            float[] a = vertex(simplified, simplified.indices[t * 3]);
+            float[] b = vertex(simplified, simplified.indices[t * 3 + 1]);
+            float[] c = vertex(simplified, simplified.indices[t * 3 + 2]);
+            double[] normal = normal(a, b, c);
+            double outward = normal[0] * (a[0] + b[0] + c[0]) + normal[1] * (a[1] + b[1] + c[1])
+                    + normal[2] * (a[2] + b[2] + c[2]);
+            double length = Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+            assertTrue(outward > -1e-5 * length);
+        }
+    }
+
+    @Test
+    public void flatGridKeepsItsCorners() {
+        Mesh simplified = MeshSimplifier.simplify(TestMeshes.grid(16), 64);
+        assertTrue(simplified.getTriangleCount() < 2 * 16 * 16);
+        assertTrue(TestMeshes.hasValidIndices(simplified));
+        assertNoDegenerateTriangles(simplified);
+
+        Set<String> positions = new HashSet<>();
+        for (int v = 0; v < simplified.getVertexCount(); v++) {
+            positions.add(simplified.positions[v * 3] + "," + simplified.positions[v * 3 + 1]);
+        }
+        assertTrue(positions.contains("0.0,0.0"));
+        assertTrue(positions.contains("16.0,0.0"));
+        assertTrue(positions.contains("0.0,16.0"));
+        assertTrue(positions.contains("16.0,16.0"));
+    }
+
+    @Test
+    public void targetAboveTriangleCountKeepsTheMesh() {
+        Mesh sphere = TestMeshes.sphere(8, 16);
+        Mesh simplified = MeshSimplifier.simplify(sphere, sphere.getTriangleCount());
+        assertEquals(TestMeshes.triangles(sphere), TestMeshes.triangles(simplified));
+    }
+
+    /**
+     * Checks that every triangle has three different vertices.
+     */
+    private static void assertNoDegenerateTriangles(Mesh mesh) {
+        for (int t = 0; t < mesh.getTriangleCount(); t++) {
+            int a = mesh.indices[t * 3];
+            int b = mesh.indices[t * 3 + 1];
+            int c = mesh.indices[t * 3 + 2];
+            assertTrue(a != b && b != c && a != c);
+        }
+    }
+
+    /**
+     * @return The position of a vertex.
+     */
+    private static float[] vertex(Mesh mesh, int index) {
+        return new float[]{mesh.positions[index * 3], mesh.positions[index * 3 + 1], mesh.positions[index * 3 + 2]};
+    }
+
+    /**
+     * @return The normal of a triangle, whose length is twice its area.
+     */
+    private static double[] normal(float[] a, float[] b, float[] c) {
+        double ux = b[0] - a[0];
+        double uy = b[1] - a[1];
+        double uz = b[2] - a[2];
+        double vx = c[0] - a[0];
+        double vy = c[1] - a[1];
+        double vz = c[2] - a[2];
+        return new double[]{uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx};
+    }
+}
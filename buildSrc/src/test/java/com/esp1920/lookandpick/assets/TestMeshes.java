@@ -0,0 +1,155 @@
+package com.esp1920.lookandpick.assets;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * This class builds the meshes used by the tests of the asset pipeline, and checks their triangles.
+ */
+/* package */ class TestMeshes {
+
+    /**
+     * Class only contains static methods.
+     */
+    private TestMeshes() {
+    }
+
+    /**
+     * Builds a flat square grid of quads in the xy plane, with texture coordinates following the position.
+     * Each triangle has its own three vertices, as an .obj file with per-face vertices is read.
+     *
+     * @param cells The number of quads on each side.
+     * @return The grid, with 2 * cells * cells triangles.
+     */
+    static Mesh grid(int cells) {
+        int triangleCount = 2 * cells * cells;
+        float[] positions = new float[triangleCount * 9];
+        float[] uvs = new float[triangleCount * 6];
+        int[] indices = new int[triangleCount * 3];
+        int vertex = 0;
+        for (int y = 0; y < cells; y++) {
+            for (int x = 0; x < cells; x++) {
+                int[][] corners = {{x, y}, {x + 1, y}, {x + 1, y + 1}, {x, y}, {x + 1, y + 1}, {x, y + 1}};
+                for (int[] corner : corners) {
+                    positions[vertex * 3] = corner[0];
+                    positions[vertex * 3 + 1] = corner[1];
+                    uvs[vertex * 2] = corner[0] / (float) cells;
+                    uvs[vertex * 2 + 1] = corner[1] / (float) cells;
+                    indices[vertex] = vertex;
+                    vertex++;
+                }
+            }
+        }
+        return new Mesh(positions, uvs, indices);
+    }
+
+    /**
+     * Builds a closed sphere of unit radius, without borders or texture seams.
+     *
+     * @param rings    The number of rings of quads from pole to pole.
+     * @param segments The number of quads around each ring.
+     * @return The sphere, with 2 * segments * (rings - 1) triangles.
+     */
+    static Mesh sphere(int rings, int segments) {
+        // One vertex for each pole, and segments vertices for each of the rings - 1 parallels.
+        int vertexCount = 2 + segments * (rings - 1);
+        float[] positions = new float[vertexCount * 3];
+        positions[1] = 1;
+        positions[(vertexCount - 1) * 3 + 1] = -1;
+        for (int ring = 1; ring < rings; ring++) {
+            double latitude = Math.PI * ring / rings;
+            for (int segment = 0; segment < segments; segment++) {
+                double longitude = 2 * Math.PI * segment / segments;
+                int vertex = 1 + (ring - 1) * segments + segment;
+                positions[vertex * 3] = (float) (Math.sin(latitude) * Math.cos(longitude));
+                positions[vertex * 3 + 1] = (float) Math.cos(latitude);
+                positions[vertex * 3 + 2] = (float) (Math.sin(latitude) * Math.sin(longitude));
+            }
+        }
+
+        List<Integer> indices = new ArrayList<>();
+        for (int segment = 0; segment < segments; segment++) {
+            int next = (segment + 1) % segments;
+            Collections.addAll(indices, 0, 1 + next, 1 + segment);
+            for (int ring = 1; ring < rings - 1; ring++) {
+                int top = 1 + (ring - 1) * segments;
+                int bottom = top + segments;
+                Collections.addAll(indices, top + segment, top + next, bottom + next);
+                Collections.addAll(indices, top + segment, bottom + next, bottom + segment);
+            }
+            int last = 1 + (rings - 2) * segments;
+            Collections.addAll(indices, last + segment, last + next, vertexCount - 1);
+        }
+        int[] indexArray = new int[indices.size()];
+        for (int i = 0; i < indexArray.length; i++) {
+            indexArray[i] = indices.get(i);
+        }
+        return new Mesh(positions, new float[vertexCount * 2], indexArray);
+    }
+
+    /**
+     * @param mesh   A mesh.
+     * @param random The source of the new order.
+     * @return The same mesh with its triangles in a random order.
+     */
+    static Mesh shuffleTriangles(Mesh mesh, Random random) {
+        List<Integer> order = new ArrayList<>();
+        for (int t = 0; t < mesh.getTriangleCount(); t++) {
+            order.add(t);
+        }
+        Collections.shuffle(order, random);
+        int[] indices = new int[mesh.indices.length];
+        for (int t = 0; t < order.size(); t++) {
+            System.arraycopy(mesh.indices, order.get(t) * 3, indices, t * 3, 3);
+        }
+        return new Mesh(mesh.positions, mesh.uvs, indices);
+    }
+
+    /**
+     * Describes each triangle by the attributes of its corners, starting from the smallest corner so
+     * that the winding is kept, regardless of the order of the triangles and vertices.
+     *
+     * @param mesh A mesh.
+     * @return The sorted descriptions of the triangles.
+     */
+    static List<String> triangles(Mesh mesh) {
+        List<String> triangles = new ArrayList<>();
+        for (int t = 0; t < mesh.getTriangleCount(); t++) {
+            String[] corners = new String[3];
+            for (int k = 0; k < 3; k++) {
+                int vertex = mesh.indices[t * 3 + k];
+                corners[k] = Arrays.toString(Arrays.copyOfRange(mesh.positions, vertex * 3, vertex * 3 + 3))
+                        + Arrays.toString(Arrays.copyOfRange(mesh.uvs, vertex * 2, vertex * 2 + 2));
+            }
+            int first = 0;
+            for (int k = 1; k < 3; k++) {
+                if (corners[k].compareTo(corners[first]) < 0)
+                    first = k;
+            }
+            triangles.add(corners[first] + corners[(first + 1) % 3] + corners[(first + 2) % 3]);
+        }
+        Collections.sort(triangles);
+        return triangles;
+    }
+
+    /**
+     * @param mesh A mesh.
+     * @return True if all the indices are vertices of the mesh, and all the vertices are used.
+     */
+    static boolean hasValidIndices(Mesh mesh) {
+        boolean[] used = new boolean[mesh.getVertexCount()];
+        for (int index : mesh.indices) {
+            if (index < 0 || index >= used.length)
+                return false;
+            used[index] = true;
+        }
+        for (boolean vertexUsed : used) {
+            if (!vertexUsed)
+                return false;
+        }
+        return mesh.uvs.length == mesh.getVertexCount() * 2;
+    }
+}